@@ -0,0 +1,430 @@
+package hudson.scm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import com.mks.api.response.APIException;
+
+/**
+ * Master-wide admission control for all commands sent to an Integrity Server.
+ * Each server has a limit on the number of commands in flight and a token bucket capping
+ * the rate at which commands are started.  Waiting commands are queued per admission group
+ * (see APISession.setAdmissionGroup()) and the groups are served round-robin, so a burst of
+ * polls and checkouts (i.e. after a checkpoint) is spread out instead of hitting the server
+ * all at once, and no single job can take all the slots.
+ */
+public class APIAdmissionController
+{
+	// The controller used by all API Sessions in this JVM, if any
+	private static volatile APIAdmissionController activeController;
+
+	private final Map<String, ServerLimiter> limiters;
+	private int defaultConcurrency;
+	private double defaultRate;
+	private Map<String, int[]> overrides;
+
+	/**
+	 * Creates a new admission controller
+	 * @param concurrency Default maximum number of commands in flight per server (0 for no limit)
+	 * @param rate Default maximum number of commands started per second per server (0 for no limit)
+	 * @param serverOverrides Per-server settings, one 'host:port=concurrency,rate' entry per line
+	 */
+	public APIAdmissionController(int concurrency, int rate, String serverOverrides)
+	{
+		this.limiters = new HashMap<String, ServerLimiter>();
+		configure(concurrency, rate, serverOverrides);
+	}
+
+	/**
+	 * Registers the controller that all API Sessions in this JVM go through
+	 * @param controller Admission controller or null to disable admission control
+	 */
+	public static void setActiveController(APIAdmissionController controller)
+	{
+		activeController = controller;
+	}
+
+	/**
+	 * Returns the controller all API Sessions in this JVM go through
+	 * @return Admission controller or null if admission control is disabled
+	 */
+	public static APIAdmissionController getActiveController()
+	{
+		return activeController;
+	}
+
+	/**
+	 * Updates the limits for all servers
+	 * Limiters are resized in place, so commands in flight keep counting against the new limits
+	 * @param concurrency Default maximum number of commands in flight per server (0 for no limit)
+	 * @param rate Default maximum number of commands started per second per server (0 for no limit)
+	 * @param serverOverrides Per-server settings, one 'host:port=concurrency,rate' entry per line
+	 */
+	public synchronized void configure(int concurrency, int rate, String serverOverrides)
+	{
+		this.defaultConcurrency = concurrency;
+		this.defaultRate = rate;
+		this.overrides = parseOverrides(serverOverrides);
+		for( ServerLimiter limiter : limiters.values() )
+		{
+			int[] limits = getLimits(limiter.getServer());
+			limiter.resize(limits[0], limits[1]);
+		}
+	}
+
+	/**
+	 * Parses the per-server settings
+	 * @param serverOverrides One 'host:port=concurrency,rate' entry per line
+	 * @return Map of concurrency and rate keyed by 'host:port'
+	 */
+	private static Map<String, int[]> parseOverrides(String serverOverrides)
+	{
+		Map<String, int[]> result = new HashMap<String, int[]>();
+		StringTokenizer lines = new StringTokenizer(null == serverOverrides ? "" : serverOverrides, "\r\n");
+		while( lines.hasMoreTokens() )
+		{
+			String line = lines.nextToken().trim();
+			int eq = line.indexOf('=');
+			if( line.length() == 0 || line.startsWith("#") || eq <= 0 )
+			{
+				continue;
+			}
+			String server = line.substring(0, eq).trim();
+			String[] limits = line.substring(eq + 1).split(",");
+			try
+			{
+				int concurrency = Integer.parseInt(limits[0].trim());
+				int rate = (limits.length > 1 ? Integer.parseInt(limits[1].trim()) : 0);
+				result.put(server, new int[] {concurrency, rate});
+			}
+			catch(NumberFormatException nfe)
+			{
+				Logger.warn("Ignoring invalid Integrity admission control setting: " + line);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the limiter for a server, creating it as necessary
+	 * @param server Integrity Server in the form 'host:port'
+	 * @return
+	 */
+	private synchronized ServerLimiter getLimiter(String server)
+	{
+		ServerLimiter limiter = limiters.get(server);
+		if( null == limiter )
+		{
+			int[] limits = getLimits(server);
+			limiter = new ServerLimiter(server, limits[0], limits[1]);
+			limiters.put(server, limiter);
+		}
+		return limiter;
+	}
+
+	/**
+	 * Returns the concurrency and rate configured for a server
+	 */
+	private int[] getLimits(String server)
+	{
+		int[] limits = overrides.get(server);
+		return (null == limits ? new int[] {defaultConcurrency, (int)defaultRate} : limits);
+	}
+
+	/**
+	 * Waits until a command may be sent to the server this API Session is connected to
+	 * Commands of sessions without an admission group are queued on their own
+	 * Every successful call must be paired with a call to release()
+	 * @param api Integrity API Session about to execute a command
+	 * @return Ticket to be handed back to release()
+	 * @throws APIException if the wait was interrupted (i.e. the build was aborted)
+	 */
+	public ServerLimiter admit(APISession api) throws APIException
+	{
+		ServerLimiter limiter = getLimiter(api.getHostName() + ":" + api.getPort());
+		limiter.acquire(null == api.getAdmissionGroup() ? api : api.getAdmissionGroup());
+		return limiter;
+	}
+
+	/**
+	 * Returns the statistics of all servers seen since the limits were last configured
+	 * @return
+	 */
+	public synchronized List<ServerLimiter> getServers()
+	{
+		List<ServerLimiter> servers = new ArrayList<ServerLimiter>(limiters.values());
+		Collections.sort(servers, new Comparator<ServerLimiter>()
+		{
+			public int compare(ServerLimiter l1, ServerLimiter l2)
+			{
+				return l1.getServer().compareTo(l2.getServer());
+			}
+		});
+		return servers;
+	}
+
+	/**
+	 * Concurrency and rate limiter for a single Integrity Server
+	 * Waiting commands are queued per admission group (i.e. a checkout and its workers) and the
+	 * groups take turns, so a checkout with many workers can't crowd out the polls of other jobs
+	 */
+	public static final class ServerLimiter
+	{
+		private final String server;
+		private int concurrency;
+		private double rate;
+		// Waiting commands per admission group, in the order the groups take their turns
+		private final LinkedHashMap<Object, LinkedList<Waiter>> queues;
+		// Token bucket state
+		private double tokens;
+		private long lastRefill;
+		// Statistics
+		private int waiting;
+		private int inFlight;
+		private long admitted;
+		private long totalWaitTime;
+		private long maxWaitTime;
+
+		private ServerLimiter(String server, int concurrency, double rate)
+		{
+			this.server = server;
+			this.queues = new LinkedHashMap<Object, LinkedList<Waiter>>();
+			this.tokens = Math.max(1, rate);
+			this.lastRefill = System.currentTimeMillis();
+			resize(concurrency, rate);
+		}
+
+		/**
+		 * Applies new limits; commands already in flight keep their slots
+		 * @param concurrency Maximum number of commands in flight (0 for no limit)
+		 * @param rate Maximum number of commands started per second (0 for no limit)
+		 */
+		private synchronized void resize(int concurrency, double rate)
+		{
+			this.concurrency = concurrency;
+			this.rate = rate;
+			this.tokens = Math.min(tokens, Math.max(1, rate));
+			dispatch();
+		}
+
+		/**
+		 * Hands the free slots to the waiting commands, one group at a time
+		 */
+		private void dispatch()
+		{
+			boolean dispatched = false;
+			while( (concurrency <= 0 || inFlight < concurrency) && ! queues.isEmpty() )
+			{
+				Map.Entry<Object, LinkedList<Waiter>> turn = queues.entrySet().iterator().next();
+				Waiter waiter = turn.getValue().removeFirst();
+				// The group goes to the back of the line until its next turn
+				queues.remove(turn.getKey());
+				if( turn.getValue().size() > 0 )
+				{
+					queues.put(turn.getKey(), turn.getValue());
+				}
+				waiter.admitted = true;
+				inFlight++;
+				dispatched = true;
+			}
+			if( dispatched )
+			{
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits for a slot in turn with the other groups and then for a token
+		 * @param group Admission group of the command
+		 * @throws APIException
+		 */
+		private void acquire(Object group) throws APIException
+		{
+			long start = System.currentTimeMillis();
+			Waiter waiter = new Waiter();
+			boolean admittedCommand = false;
+			try
+			{
+				synchronized(this)
+				{
+					waiting++;
+					LinkedList<Waiter> queue = queues.get(group);
+					if( null == queue )
+					{
+						queue = new LinkedList<Waiter>();
+						queues.put(group, queue);
+					}
+					queue.add(waiter);
+					dispatch();
+					while( ! waiter.admitted )
+					{
+						wait();
+					}
+				}
+				takeToken();
+				admittedCommand = true;
+			}
+			catch(InterruptedException iex)
+			{
+				synchronized(this)
+				{
+					if( waiter.admitted )
+					{
+						inFlight--;
+						dispatch();
+					}
+					else
+					{
+						LinkedList<Waiter> queue = queues.get(group);
+						if( null != queue && queue.remove(waiter) && queue.isEmpty() )
+						{
+							queues.remove(group);
+						}
+					}
+				}
+				Thread.currentThread().interrupt();
+				throw new APIException("Interrupted while waiting to send a command to the Integrity Server " + server + "!");
+			}
+			finally
+			{
+				long wait = System.currentTimeMillis() - start;
+				synchronized(this)
+				{
+					waiting--;
+					if( admittedCommand )
+					{
+						admitted++;
+						totalWaitTime += wait;
+						maxWaitTime = Math.max(maxWaitTime, wait);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Takes a token from the bucket, sleeping until one becomes available
+		 * @throws InterruptedException
+		 */
+		private void takeToken() throws InterruptedException
+		{
+			while( true )
+			{
+				long sleep;
+				synchronized(this)
+				{
+					if( rate <= 0 )
+					{
+						return;
+					}
+					long now = System.currentTimeMillis();
+					// The bucket holds at most a second's worth of tokens
+					tokens = Math.min(Math.max(1, rate), tokens + ((now - lastRefill) * rate / 1000.0));
+					lastRefill = now;
+					if( tokens >= 1 )
+					{
+						tokens -= 1;
+						return;
+					}
+					sleep = (long)Math.ceil((1 - tokens) * 1000.0 / rate);
+				}
+				Thread.sleep(Math.max(1, sleep));
+			}
+		}
+
+		/**
+		 * Releases the slot held by a command that completed
+		 */
+		public synchronized void release()
+		{
+			inFlight--;
+			dispatch();
+		}
+
+		/**
+		 * Returns the Integrity Server in the form 'host:port'
+		 * @return
+		 */
+		public String getServer()
+		{
+			return server;
+		}
+
+		/**
+		 * Returns the maximum number of commands in flight or 0 if unlimited
+		 * @return
+		 */
+		public synchronized int getConcurrency()
+		{
+			return concurrency;
+		}
+
+		/**
+		 * Returns the maximum number of commands started per second or 0 if unlimited
+		 * @return
+		 */
+		public synchronized int getRate()
+		{
+			return (int)rate;
+		}
+
+		/**
+		 * Returns the number of commands currently queued
+		 * @return
+		 */
+		public synchronized int getQueueDepth()
+		{
+			return waiting;
+		}
+
+		/**
+		 * Returns the number of commands currently executing
+		 * @return
+		 */
+		public synchronized int getInFlight()
+		{
+			return inFlight;
+		}
+
+		/**
+		 * Returns the number of commands admitted so far
+		 * @return
+		 */
+		public synchronized long getAdmitted()
+		{
+			return admitted;
+		}
+
+		/**
+		 * Returns the average time (in milliseconds) a command waited to be admitted
+		 * @return
+		 */
+		public synchronized long getAverageWaitTime()
+		{
+			return (admitted > 0 ? totalWaitTime / admitted : 0);
+		}
+
+		/**
+		 * Returns the longest time (in milliseconds) a command waited to be admitted
+		 * @return
+		 */
+		public synchronized long getMaxWaitTime()
+		{
+			return maxWaitTime;
+		}
+	}
+
+	/**
+	 * Command waiting for a slot
+	 */
+	private static final class Waiter
+	{
+		private boolean admitted;
+	}
+}
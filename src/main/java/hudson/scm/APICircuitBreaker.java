@@ -0,0 +1,188 @@
+package hudson.scm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mks.api.response.APIException;
+
+/**
+ * Tracks connection failures against an Integrity Server.  After a number of consecutive
+ * failures the circuit opens and commands fail fast instead of waiting on timeouts against
+ * a server that is down or degraded.  Once the open interval has passed, a single trial
+ * command is let through; if it succeeds the circuit closes again.
+ */
+public class APICircuitBreaker
+{
+	// Number of consecutive connection failures that will open the circuit
+	public static final int FAILURE_THRESHOLD = 5;
+	// Time the circuit stays open before a trial command is let through
+	public static final long OPEN_INTERVAL = 30 * 1000L;
+
+	private static final Map<String, APICircuitBreaker> breakers = new HashMap<String, APICircuitBreaker>();
+
+	private final String server;
+	private int consecutiveFailures;
+	private long openedAt;
+	private long trialStartedAt;
+	private long rejectedCount;
+
+	/**
+	 * Exception thrown for commands rejected while the circuit is open
+	 */
+	public static class CircuitOpenException extends APIException
+	{
+		private static final long serialVersionUID = -4391745231879045736L;
+
+		public CircuitOpenException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private APICircuitBreaker(String server)
+	{
+		this.server = server;
+	}
+
+	/**
+	 * Returns the circuit breaker for an Integrity Server
+	 * @param server Integrity Server in the form 'host:port'
+	 * @return
+	 */
+	public static synchronized APICircuitBreaker getBreaker(String server)
+	{
+		APICircuitBreaker breaker = breakers.get(server);
+		if( null == breaker )
+		{
+			breaker = new APICircuitBreaker(server);
+			breakers.put(server, breaker);
+		}
+		return breaker;
+	}
+
+	/**
+	 * Returns the circuit breakers for all servers seen by this JVM
+	 * @return
+	 */
+	public static synchronized List<APICircuitBreaker> getBreakers()
+	{
+		List<APICircuitBreaker> list = new ArrayList<APICircuitBreaker>(breakers.values());
+		Collections.sort(list, new Comparator<APICircuitBreaker>()
+		{
+			public int compare(APICircuitBreaker b1, APICircuitBreaker b2)
+			{
+				return b1.getServer().compareTo(b2.getServer());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Checks whether a command may be sent to the server
+	 * @throws CircuitOpenException if the circuit is open
+	 */
+	public synchronized void beforeCommand() throws CircuitOpenException
+	{
+		if( 0 == openedAt )
+		{
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		// Let a single trial command through once the open interval has passed
+		// An abandoned trial (i.e. an aborted build) doesn't keep the circuit open forever
+		if( now - openedAt >= OPEN_INTERVAL && (0 == trialStartedAt || now - trialStartedAt >= OPEN_INTERVAL) )
+		{
+			Logger.debug("Sending trial command to Integrity Server " + server);
+			trialStartedAt = now;
+			return;
+		}
+
+		rejectedCount++;
+		throw new CircuitOpenException("Integrity Server " + server + " is unavailable after " + consecutiveFailures +
+										" consecutive connection failures; the command was not attempted!");
+	}
+
+	/**
+	 * Records a command that reached the server
+	 */
+	public synchronized void recordSuccess()
+	{
+		if( 0 != openedAt )
+		{
+			Logger.info("Integrity Server " + server + " is available again; closing circuit");
+		}
+		consecutiveFailures = 0;
+		openedAt = 0;
+		trialStartedAt = 0;
+	}
+
+	/**
+	 * Records a failed command
+	 * Command failures reported by the server mean it is reachable, so only API failures count against the circuit
+	 * @param aex APIException caught while executing a command
+	 */
+	public synchronized void recordFailure(APIException aex)
+	{
+		if( null != aex.getResponse() )
+		{
+			recordSuccess();
+			return;
+		}
+
+		consecutiveFailures++;
+		if( 0 != trialStartedAt || (0 == openedAt && consecutiveFailures >= FAILURE_THRESHOLD) )
+		{
+			if( 0 == openedAt )
+			{
+				Logger.warn("Opening circuit for Integrity Server " + server + " after " + consecutiveFailures + " consecutive connection failures");
+			}
+			openedAt = System.currentTimeMillis();
+			trialStartedAt = 0;
+		}
+	}
+
+	/**
+	 * Returns the Integrity Server in the form 'host:port'
+	 * @return
+	 */
+	public String getServer()
+	{
+		return server;
+	}
+
+	/**
+	 * Returns the state of the circuit; closed, open or half-open (trial command pending)
+	 * @return
+	 */
+	public synchronized String getState()
+	{
+		if( 0 == openedAt )
+		{
+			return "Closed";
+		}
+		return (System.currentTimeMillis() - openedAt >= OPEN_INTERVAL ? "Half-Open" : "Open");
+	}
+
+	/**
+	 * Returns the number of consecutive connection failures
+	 * @return
+	 */
+	public synchronized int getConsecutiveFailures()
+	{
+		return consecutiveFailures;
+	}
+
+	/**
+	 * Returns the number of commands rejected while the circuit was open
+	 * @return
+	 */
+	public synchronized long getRejectedCount()
+	{
+		return rejectedCount;
+	}
+}
@@ -0,0 +1,144 @@
+package hudson.scm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executes Integrity API commands asynchronously on a shared pool of daemon threads.
+ * A semaphore per Integrity Server caps how many of these commands run against
+ * a single server at the same time, so overlapping round-trips won't swamp it.
+ */
+public class APICommandExecutor
+{
+	// Default number of asynchronous commands allowed to run concurrently against one server
+	public static final int DEFAULT_MAX_CONCURRENT_COMMANDS = 4;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		private int count = 0;
+		public synchronized Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "Integrity API Command Executor " + (++count));
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private static final Map<String, ServerPermits> serverPermits = new HashMap<String, ServerPermits>();
+	private static int maxConcurrentCommands = DEFAULT_MAX_CONCURRENT_COMMANDS;
+
+	/**
+	 * Sets the number of asynchronous commands allowed to run concurrently against a single server
+	 * The semaphores are resized in place, so commands already running count against the new limit
+	 * @param maxCommands Maximum number of concurrent commands per server
+	 */
+	public static synchronized void setMaxConcurrentCommands(int maxCommands)
+	{
+		maxConcurrentCommands = (maxCommands > 0 ? maxCommands : 1);
+		for( ServerPermits permits : serverPermits.values() )
+		{
+			permits.resize(maxConcurrentCommands);
+		}
+	}
+
+	/**
+	 * Returns the number of asynchronous commands allowed to run concurrently against a single server
+	 * @return
+	 */
+	public static synchronized int getMaxConcurrentCommands()
+	{
+		return maxConcurrentCommands;
+	}
+
+	/**
+	 * Returns the semaphore guarding the server this API Session is connected to
+	 * @param api Integrity API Session
+	 * @return
+	 */
+	private static synchronized Semaphore getPermits(APISession api)
+	{
+		String server = api.getHostName() + ":" + api.getPort();
+		ServerPermits permits = serverPermits.get(server);
+		if( null == permits )
+		{
+			permits = new ServerPermits(maxConcurrentCommands);
+			serverPermits.put(server, permits);
+		}
+		return permits;
+	}
+
+	/**
+	 * Submits a task that executes one or more commands using the specified API Session
+	 * The caller is blocked until a slot for the session's server is available, which
+	 * keeps the number of queued tasks (and threads) bounded by the concurrency limit
+	 * @param api Integrity API Session used by the task
+	 * @param task Task to execute
+	 * @return Future representing the result of the task
+	 * @throws InterruptedException if the caller was interrupted while waiting for a slot, i.e. the build was aborted
+	 */
+	public static <T> Future<T> submit(APISession api, final Callable<T> task) throws InterruptedException
+	{
+		final Semaphore permits = getPermits(api);
+		permits.acquire();
+		try
+		{
+			return executor.submit(new Callable<T>()
+			{
+				public T call() throws Exception
+				{
+					try
+					{
+						return task.call();
+					}
+					finally
+					{
+						permits.release();
+					}
+				}
+			});
+		}
+		catch(RuntimeException rex)
+		{
+			// The task was rejected, so give back the slot
+			permits.release();
+			throw rex;
+		}
+	}
+
+	/**
+	 * Semaphore guarding a single server, whose number of permits can be changed while they are held
+	 */
+	private static final class ServerPermits extends Semaphore
+	{
+		private static final long serialVersionUID = -1590253318425471693L;
+		private int limit;
+
+		private ServerPermits(int limit)
+		{
+			super(limit, true);
+			this.limit = limit;
+		}
+
+		/**
+		 * Changes the number of permits; a permit released after a reduction is absorbed by it
+		 * @param newLimit New number of permits
+		 */
+		private synchronized void resize(int newLimit)
+		{
+			if( newLimit > limit )
+			{
+				release(newLimit - limit);
+			}
+			else if( newLimit < limit )
+			{
+				reducePermits(limit - newLimit);
+			}
+			limit = newLimit;
+		}
+	}
+}
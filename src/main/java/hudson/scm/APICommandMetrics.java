@@ -0,0 +1,297 @@
+package hudson.scm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mks.api.Command;
+
+/**
+ * Collects the number of executions, errors and a latency histogram for every Integrity command
+ * (i.e. 'si viewproject', 'si projectco', 'si revisioninfo') executed by this JVM.  Checkouts on
+ * slaves collect their commands separately and hand them back to be merged on the master.
+ */
+public class APICommandMetrics implements Serializable
+{
+	private static final long serialVersionUID = -3079422528406683372L;
+	// Upper bounds (in milliseconds) of the latency histogram buckets; the last bucket is unbounded
+	private static final long[] BUCKETS = {5, 10, 25, 50, 75, 100, 150, 250, 500, 750, 1000, 1500, 2500, 5000,
+											10000, 30000, 60000, 300000, Long.MAX_VALUE};
+
+	private static final Map<String, APICommandMetrics> metrics = new HashMap<String, APICommandMetrics>();
+
+	private final String command;
+	private final long[] histogram;
+	private long count;
+	private long errorCount;
+	private long totalTime;
+	private long maxTime;
+
+	private APICommandMetrics(String command)
+	{
+		this.command = command;
+		this.histogram = new long[BUCKETS.length];
+	}
+
+	/**
+	 * Records the execution of a command
+	 * @param cmd Integrity API Command Object that was executed
+	 * @param startTime Time (in milliseconds) when the command was started
+	 * @param failed true if the command resulted in an APIException
+	 */
+	public static void record(Command cmd, long startTime, boolean failed)
+	{
+		record(cmd, startTime, failed, null);
+	}
+
+	/**
+	 * Records the execution of a command, also adding it to a collector
+	 * @param cmd Integrity API Command Object that was executed
+	 * @param startTime Time (in milliseconds) when the command was started
+	 * @param failed true if the command resulted in an APIException
+	 * @param collector Collector handing the samples back to the master or null
+	 */
+	public static void record(Command cmd, long startTime, boolean failed, Collector collector)
+	{
+		String name = cmd.getApp() + " " + cmd.getCommandName();
+		long elapsed = System.currentTimeMillis() - startTime;
+		getMetrics(metrics, name).add(elapsed, failed);
+		if( null != collector )
+		{
+			getMetrics(collector.metrics, name).add(elapsed, failed);
+		}
+	}
+
+	/**
+	 * Adds the commands collected on a slave to the metrics of this JVM
+	 * @param collector Collector returned by a checkout on a slave
+	 */
+	public static void merge(Collector collector)
+	{
+		for( APICommandMetrics other : collector.getAll() )
+		{
+			getMetrics(metrics, other.getCommand()).add(other);
+		}
+	}
+
+	/**
+	 * Returns the metrics of a command, creating them as necessary
+	 */
+	private static APICommandMetrics getMetrics(Map<String, APICommandMetrics> metrics, String name)
+	{
+		synchronized(metrics)
+		{
+			APICommandMetrics stats = metrics.get(name);
+			if( null == stats )
+			{
+				stats = new APICommandMetrics(name);
+				metrics.put(name, stats);
+			}
+			return stats;
+		}
+	}
+
+	/**
+	 * Returns the metrics for all commands executed so far, sorted by command name
+	 * @return
+	 */
+	public static List<APICommandMetrics> getAll()
+	{
+		List<APICommandMetrics> list;
+		synchronized(metrics)
+		{
+			list = new ArrayList<APICommandMetrics>(metrics.values());
+		}
+		Collections.sort(list, new Comparator<APICommandMetrics>()
+		{
+			public int compare(APICommandMetrics m1, APICommandMetrics m2)
+			{
+				return m1.getCommand().compareTo(m2.getCommand());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Discards all metrics collected so far
+	 */
+	public static void reset()
+	{
+		synchronized(metrics)
+		{
+			metrics.clear();
+		}
+	}
+
+	/**
+	 * Adds a single sample to this command's metrics
+	 */
+	private synchronized void add(long elapsed, boolean failed)
+	{
+		count++;
+		if( failed )
+		{
+			errorCount++;
+		}
+		totalTime += elapsed;
+		maxTime = Math.max(maxTime, elapsed);
+		for( int i = 0; i < BUCKETS.length; i++ )
+		{
+			if( elapsed <= BUCKETS[i] )
+			{
+				histogram[i]++;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Adds the samples of another command's metrics to this command's metrics
+	 */
+	private void add(APICommandMetrics other)
+	{
+		long[] otherHistogram;
+		long otherCount, otherErrors, otherTotal, otherMax;
+		synchronized(other)
+		{
+			otherHistogram = other.histogram.clone();
+			otherCount = other.count;
+			otherErrors = other.errorCount;
+			otherTotal = other.totalTime;
+			otherMax = other.maxTime;
+		}
+		synchronized(this)
+		{
+			count += otherCount;
+			errorCount += otherErrors;
+			totalTime += otherTotal;
+			maxTime = Math.max(maxTime, otherMax);
+			for( int i = 0; i < BUCKETS.length; i++ )
+			{
+				histogram[i] += otherHistogram[i];
+			}
+		}
+	}
+
+	/**
+	 * Estimates a latency percentile from the histogram
+	 * The upper bound of the bucket containing the percentile is returned, capped by the slowest sample
+	 * @param percentile Percentile between 0 and 100
+	 * @return Latency in milliseconds
+	 */
+	public synchronized long getPercentile(double percentile)
+	{
+		if( 0 == count )
+		{
+			return 0;
+		}
+		long rank = (long)Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for( int i = 0; i < BUCKETS.length; i++ )
+		{
+			seen += histogram[i];
+			if( seen >= rank )
+			{
+				return Math.min(BUCKETS[i], maxTime);
+			}
+		}
+		return maxTime;
+	}
+
+	/**
+	 * Returns the command name, i.e. 'si viewproject'
+	 * @return
+	 */
+	public String getCommand()
+	{
+		return command;
+	}
+
+	/**
+	 * Returns the number of times this command was executed
+	 * @return
+	 */
+	public synchronized long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the number of times this command resulted in an APIException
+	 * @return
+	 */
+	public synchronized long getErrorCount()
+	{
+		return errorCount;
+	}
+
+	/**
+	 * Returns the average latency in milliseconds
+	 * @return
+	 */
+	public synchronized long getAverage()
+	{
+		return (count > 0 ? totalTime / count : 0);
+	}
+
+	/**
+	 * Returns the longest latency in milliseconds
+	 * @return
+	 */
+	public synchronized long getMax()
+	{
+		return maxTime;
+	}
+
+	/**
+	 * Returns the median latency in milliseconds
+	 * @return
+	 */
+	public long getP50()
+	{
+		return getPercentile(50);
+	}
+
+	/**
+	 * Returns the 95th percentile latency in milliseconds
+	 * @return
+	 */
+	public long getP95()
+	{
+		return getPercentile(95);
+	}
+
+	/**
+	 * Returns the 99th percentile latency in milliseconds
+	 * @return
+	 */
+	public long getP99()
+	{
+		return getPercentile(99);
+	}
+
+	/**
+	 * Metrics of the commands executed by a single task, i.e. a checkout on a slave
+	 */
+	public static final class Collector implements Serializable
+	{
+		private static final long serialVersionUID = 8105365907731428409L;
+		private final Map<String, APICommandMetrics> metrics = new HashMap<String, APICommandMetrics>();
+
+		/**
+		 * Returns the metrics for all commands collected so far
+		 * @return
+		 */
+		public List<APICommandMetrics> getAll()
+		{
+			synchronized(metrics)
+			{
+				return new ArrayList<APICommandMetrics>(metrics.values());
+			}
+		}
+	}
+}
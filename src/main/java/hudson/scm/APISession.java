@@ -1,25 +1,27 @@
 package hudson.scm;
 
-import com.mks.api.CmdRunner;
 import com.mks.api.Command;
-import com.mks.api.IntegrationPoint;
-import com.mks.api.IntegrationPointFactory;
 import com.mks.api.response.APIException;
 import com.mks.api.response.Response;
-import com.mks.api.Session;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
- * This class represents an Integration Point to a server.  
- * It also contains a Session object
+ * This class represents a session with an Integrity Server.  
+ * Commands are sent through an APITransport, which normally is an Integration Point 
+ * to the server.  Setting the system property hudson.scm.APISession.localServer to a
+ * directory replaces the server with a file-backed LocalIntegrityTransport instead.
  */
 public class APISession
 {
-	// Store the API Version
-	public static final String VERSION = IntegrationPointFactory.getAPIVersion().substring(0, 
-											IntegrationPointFactory.getAPIVersion().indexOf(' '));
-	public static final int MAJOR_VERSION = Integer.parseInt(VERSION.substring(0, VERSION.indexOf('.')));	
-	public static final int MINOR_VERSION = Integer.parseInt(VERSION.substring(VERSION.indexOf('.')+1, VERSION.length()));
+	// System property pointing to the directory served by the local Integrity stand-in
+	public static final String LOCAL_SERVER_PROPERTY = APISession.class.getName() + ".localServer";
 	
 	// Class variables used to create an API Session
 	private String ipHostName;
@@ -28,12 +30,29 @@ public class APISession
 	private int port;
 	private String userName;
 	private String password;
+	private boolean secure;
 	
 	// API Specific Objects
-	private IntegrationPoint ip;
-	private Session session;
-	private CmdRunner icr;	
+	private APITransport transport;
 	private boolean terminated;
+	// Tracks whether this session can safely be reused (see APISessionPool)
+	private volatile boolean healthy;
+	private volatile long lastUsed = System.currentTimeMillis();
+	// Sessions of the same group take turns with other groups at the admission controller
+	private volatile String admissionGroup;
+	// Also receives the command metrics, i.e. to hand them back to the master
+	private volatile APICommandMetrics.Collector metricsCollector;
+	// Command with interim whose metrics are recorded once its response was read
+	private Command interimCommand;
+	private long interimStart;
+	
+	// Retry policy for commands that are safe to repeat after a connection failure
+	private static final Set<String> IDEMPOTENT_COMMANDS = new HashSet<String>(Arrays.asList(
+													"projectinfo", "viewproject", "projectco", "revisioninfo"));
+	private static final int MAX_ATTEMPTS = 4;
+	private static final long BASE_BACKOFF = 500L;
+	private static final long MAX_BACKOFF = 10 * 1000L;
+	private static final Random jitter = new Random();
 	
 	/**
 	 * Constructor for the API Session Object
@@ -44,29 +63,16 @@ public class APISession
 	{
 		// Initialize our termination flag...
 		terminated = false;
-		// Create a Server Integration Point to a client or the target server itself
-		if( null != ipHost && ipHost.length() > 0 && ipPortNum > 0 )
+		// Create the transport to the Integrity Server or its local stand-in
+		String localServer = System.getProperty(LOCAL_SERVER_PROPERTY);
+		if( null != localServer && localServer.length() > 0 )
 		{
-			// Connect via the client, using "client as server"
-			ip = IntegrationPointFactory.getInstance().createIntegrationPoint(ipHost, ipPortNum, secure, MAJOR_VERSION, MINOR_VERSION);
+			transport = new LocalIntegrityTransport(new File(localServer), user);
 		}
 		else
 		{
-			// Directly to the server...
-			ip = IntegrationPointFactory.getInstance().createIntegrationPoint(host, portNum, secure, MAJOR_VERSION, MINOR_VERSION);
+			transport = new IntegrationPointTransport(ipHost, ipPortNum, host, portNum, user, paswd, secure);
 		}
-		// Create the Session
-		session = ip.createSession(user, paswd);
-		// Test the connection to the Integrity Server
-		Command ping = new Command("api", "ping");
-	    CmdRunner cmdRunner = session.createCmdRunner();
-	    cmdRunner.setDefaultHostname(host);
-	    cmdRunner.setDefaultPort(portNum);
-	    cmdRunner.setDefaultUsername(user);
-	    cmdRunner.setDefaultPassword(paswd);
-	    // Execute the connection
-		Response res = cmdRunner.execute(ping);
-		Logger.debug(res.getCommandString() + " returned exit code " + res.getExitCode());
 		// Initialize class variables
 		ipHostName = ipHost;
 		ipPort = ipPortNum;
@@ -74,10 +80,24 @@ public class APISession
 		port = portNum;
 		userName = user;
 		password = paswd;
-		cmdRunner.release();
+		this.secure = secure;
+		healthy = true;
+		// Test the connection to the Integrity Server
+		ping();
 		Logger.debug("Successfully established connection " + userName + "@" + hostName + ":" + port);
 	}
 	
+	/**
+	 * Tests the connection to the Integrity Server by executing an 'api ping'
+	 * @throws APIException
+	 */
+	public void ping() throws APIException
+	{
+		Command ping = new Command("api", "ping");
+		Response res = runCommand(ping);
+		Logger.debug(res.getCommandString() + " returned exit code " + res.getExitCode());
+	}
+	
 	/**
 	 * This function executes a generic API/CLI Command
 	 * @param cmd Integrity API Command Object representing a CLI command
@@ -86,15 +106,25 @@ public class APISession
 	 */
 	public Response runCommand(Command cmd) throws APIException
 	{
-	    CmdRunner cmdRunner = session.createCmdRunner();
-	    cmdRunner.setDefaultHostname(hostName);
-	    cmdRunner.setDefaultPort(port);
-	    cmdRunner.setDefaultUsername(userName);
-	    cmdRunner.setDefaultPassword(password);
-	    Response res = cmdRunner.execute(cmd);
-	    Logger.debug(res.getCommandString() + " returned exit code " + res.getExitCode());	    
-	    cmdRunner.release();
-	    return res;
+		return execute(cmd, "");
+	}
+	
+	/**
+	 * Submits a generic API/CLI Command for asynchronous execution
+	 * The number of commands running concurrently against a server is capped by the APICommandExecutor
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @return Future representing the Integrity API Response Object
+	 * @throws InterruptedException
+	 */
+	public Future<Response> submit(final Command cmd) throws InterruptedException
+	{
+		return APICommandExecutor.submit(this, new Callable<Response>()
+		{
+			public Response call() throws APIException
+			{
+				return runCommand(cmd);
+			}
+		});
 	}
 	
 	/**
@@ -105,20 +135,174 @@ public class APISession
 	 */
 	public Response runCommandWithInterim(Command cmd) throws APIException
 	{
-		// Terminate the previous command runner, if applicable
-		if( null != icr )
+		int attempt = 0;
+		while( true )
 		{
-			icr.interrupt();
-			icr.release();
+			try
+			{
+				return executeWithInterim(cmd);
+			}
+			catch(APIException aex)
+			{
+				if( ! retry(cmd, aex, ++attempt) )
+				{
+					throw aex;
+				}
+			}
 		}
-		icr = session.createCmdRunner();
-		icr.setDefaultHostname(hostName);
-		icr.setDefaultPort(port);
-		icr.setDefaultUsername(userName);
-		icr.setDefaultPassword(password);
-	    Response res = icr.executeWithInterim(cmd, false);
-	    Logger.debug("Executed " + res.getCommandString() + " with interim");
-	    return res;
+	}
+	
+	/**
+	 * Executes a single attempt of a command with interim
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @return Integrity API Response Object
+	 * @throws APIException
+	 */
+	private Response executeWithInterim(Command cmd) throws APIException
+	{
+		APICircuitBreaker breaker = getCircuitBreaker();
+		breaker.beforeCommand();
+		lastUsed = System.currentTimeMillis();
+		APIAdmissionController.ServerLimiter admission = admit();
+		long start = System.currentTimeMillis();
+		try
+		{
+			Response res = transport.executeWithInterim(cmd);
+			Logger.debug("Executed " + res.getCommandString() + " with interim");
+			breaker.recordSuccess();
+			// The response is still being read, so the metrics are recorded by releaseInterimRunner()
+			synchronized(this)
+			{
+				interimCommand = cmd;
+				interimStart = start;
+			}
+			return res;
+		}
+		catch(APIException aex)
+		{
+			breaker.recordFailure(aex);
+			markUnhealthy(aex);
+			APICommandMetrics.record(cmd, start, true, metricsCollector);
+			throw aex;
+		}
+		finally
+		{
+			if( null != admission ){ admission.release(); }
+		}
+	}
+	
+	/**
+	 * Returns the circuit breaker for the server this session is connected to
+	 * @return
+	 */
+	private APICircuitBreaker getCircuitBreaker()
+	{
+		return APICircuitBreaker.getBreaker(hostName + ":" + port);
+	}
+	
+	/**
+	 * Decides whether a failed command should be attempted again and waits out the backoff if so
+	 * Only idempotent commands that failed to reach the server are retried, using a jittered 
+	 * exponential backoff so that jobs retrying against a degraded server don't do so in lockstep
+	 * @param cmd Integrity API Command Object that failed
+	 * @param aex APIException caught while executing the command
+	 * @param attempt Number of attempts made so far
+	 * @return true if the command should be attempted again
+	 */
+	private boolean retry(Command cmd, APIException aex, int attempt)
+	{
+		if( attempt >= MAX_ATTEMPTS || null != aex.getResponse() || aex instanceof APICircuitBreaker.CircuitOpenException || 
+				! IDEMPOTENT_COMMANDS.contains(cmd.getCommandName()) )
+		{
+			return false;
+		}
+		
+		long ceiling = Math.min(MAX_BACKOFF, BASE_BACKOFF << (attempt - 1));
+		long backoff;
+		synchronized(jitter){ backoff = ceiling / 2 + (long)(jitter.nextDouble() * ceiling / 2); }
+		Logger.warn("Attempt " + attempt + " of " + cmd.getApp() + " " + cmd.getCommandName() + " failed: " + aex.getMessage() + 
+						"; retrying in " + backoff + "ms");
+		try
+		{
+			Thread.sleep(backoff);
+			return true;
+		}
+		catch(InterruptedException iex)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Sets the group this session's commands are queued with at the admission controller
+	 * All sessions working for the same job should use the same group
+	 * @param admissionGroup Group name or null to queue this session's commands on their own
+	 */
+	public void setAdmissionGroup(String admissionGroup)
+	{
+		this.admissionGroup = admissionGroup;
+	}
+	
+	/**
+	 * Sets a collector that receives the metrics of this session's commands in addition to this JVM's metrics
+	 * @param metricsCollector Collector or null
+	 */
+	public void setMetricsCollector(APICommandMetrics.Collector metricsCollector)
+	{
+		this.metricsCollector = metricsCollector;
+	}
+	
+	/**
+	 * Returns the group this session's commands are queued with at the admission controller
+	 * @return
+	 */
+	public String getAdmissionGroup()
+	{
+		return admissionGroup;
+	}
+	
+	/**
+	 * Waits for the master-wide admission controller (if any) to let a command through
+	 * @return Admission ticket to be released when the command completes or null if there is no controller
+	 * @throws APIException
+	 */
+	private APIAdmissionController.ServerLimiter admit() throws APIException
+	{
+		APIAdmissionController controller = APIAdmissionController.getActiveController();
+		return (null == controller ? null : controller.admit(this));
+	}
+	
+	/**
+	 * Releases the command runner used by the last runCommandWithInterim() call, if any
+	 * @throws APIException
+	 */
+	public void releaseInterimRunner() throws APIException
+	{
+		releaseInterimRunner(false);
+	}
+	
+	/**
+	 * Releases the command runner used by the last runCommandWithInterim() call, if any, and records
+	 * the time it took to read the command's response
+	 * @param failed true if reading the response failed or was cancelled
+	 * @throws APIException
+	 */
+	public void releaseInterimRunner(boolean failed) throws APIException
+	{
+		Command cmd;
+		long start;
+		synchronized(this)
+		{
+			cmd = interimCommand;
+			start = interimStart;
+			interimCommand = null;
+		}
+		if( null != cmd )
+		{
+			APICommandMetrics.record(cmd, start, failed, metricsCollector);
+		}
+		transport.releaseInterim();
 	}
 	
 	/**
@@ -130,16 +314,83 @@ public class APISession
 	 */
 	public Response runCommandAs(Command cmd, String impersonateUser) throws APIException
 	{
-	    CmdRunner cmdRunner = session.createCmdRunner();
-	    cmdRunner.setDefaultHostname(hostName);
-	    cmdRunner.setDefaultPort(port);
-	    cmdRunner.setDefaultUsername(userName);
-	    cmdRunner.setDefaultPassword(password);
-	    cmdRunner.setDefaultImpersonationUser(impersonateUser);
-	    Response res = cmdRunner.execute(cmd);
-	    Logger.debug(res.getCommandString() + " returned exit code " + res.getExitCode());
-	    cmdRunner.release();
-	    return res;
+		return execute(cmd, null == impersonateUser ? "" : impersonateUser);
+	}
+	
+	/**
+	 * Executes a command through this session's transport, retrying idempotent commands 
+	 * that failed to reach the server
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @param impersonateUser The user to impersonate or an empty string
+	 * @return Integrity API Response Object
+	 * @throws APIException
+	 */
+	private Response execute(Command cmd, String impersonateUser) throws APIException
+	{
+		int attempt = 0;
+		while( true )
+		{
+			try
+			{
+				return executeOnce(cmd, impersonateUser);
+			}
+			catch(APIException aex)
+			{
+				if( ! retry(cmd, aex, ++attempt) )
+				{
+					throw aex;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Executes a single attempt of a command
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @param impersonateUser The user to impersonate or an empty string
+	 * @return Integrity API Response Object
+	 * @throws APIException
+	 */
+	private Response executeOnce(Command cmd, String impersonateUser) throws APIException
+	{
+		APICircuitBreaker breaker = getCircuitBreaker();
+		breaker.beforeCommand();
+		lastUsed = System.currentTimeMillis();
+		APIAdmissionController.ServerLimiter admission = admit();
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try
+		{
+			Response res = transport.execute(cmd, impersonateUser);
+			Logger.debug(res.getCommandString() + " returned exit code " + res.getExitCode());
+			breaker.recordSuccess();
+			failed = false;
+			return res;
+		}
+		catch(APIException aex)
+		{
+			breaker.recordFailure(aex);
+			markUnhealthy(aex);
+			throw aex;
+		}
+		finally
+		{
+			APICommandMetrics.record(cmd, start, failed, metricsCollector);
+			if( null != admission ){ admission.release(); }
+		}
+	}
+	
+	/**
+	 * An APIException without a response indicates the API itself failed (i.e. connection
+	 * problems) rather than the command, so this session shouldn't be handed out again
+	 * @param aex APIException caught while executing a command
+	 */
+	private void markUnhealthy(APIException aex)
+	{
+		if( null == aex.getResponse() )
+		{
+			healthy = false;
+		}
 	}
 	
 	/**
@@ -152,22 +403,7 @@ public class APISession
 		{
 			try
 			{
-				if( null != icr )
-				{
-					icr.interrupt();
-					icr.release();
-				}
-				
-				if( null != session )
-				{
-					session.release();
-				}
-	
-				if( null != ip )
-				{
-					ip.release();
-				}
-				
+				transport.release();
 				terminated = true;
 				Logger.debug("Successfully disconnected connection " + userName + "@" + hostName + ":" + port);
 			}
@@ -228,4 +464,31 @@ public class APISession
 	{
 		return userName;
 	}
+	
+	/**
+	 * Returns true/false depending on whether or not secure sockets are enabled for this APISession
+	 * @return
+	 */
+	public boolean getSecure()
+	{
+		return secure;
+	}
+	
+	/**
+	 * Returns true if this APISession has not been terminated and has not experienced connection failures
+	 * @return
+	 */
+	public boolean isHealthy()
+	{
+		return healthy && ! terminated;
+	}
+	
+	/**
+	 * Returns the time (in milliseconds) when this APISession last executed a command
+	 * @return
+	 */
+	public long getLastUsed()
+	{
+		return lastUsed;
+	}
 }
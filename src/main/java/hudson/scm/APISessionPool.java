@@ -0,0 +1,326 @@
+package hudson.scm;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.mks.api.response.APIException;
+
+/**
+ * This class maintains a pool of authenticated API Sessions keyed by the connection settings
+ * (Integration Point host/port, Integrity host/port, user and secure setting).  Polling,
+ * checkout, checkpoint and item updates borrow a session from the pool and return it when
+ * done, instead of establishing and tearing down a new connection for every operation.
+ */
+public class APISessionPool
+{
+	// Sessions idle longer than this will be validated with an 'api ping' before they are handed out
+	private static final long VALIDATION_INTERVAL = 2 * 60 * 1000L;
+	// Frequency of the idle eviction sweep
+	private static final long EVICTION_INTERVAL = 60 * 1000L;
+
+	private final Map<String, LinkedList<APISession>> idleSessions;
+	private final Map<APISession, String> activeSessions;
+	private int maxSize;
+	private long idleTimeout;
+	private int idleCount;
+	private Timer evictionTimer;
+
+	/**
+	 * Creates a new API Session pool
+	 * @param maxSize Maximum number of idle sessions that will be kept by this pool
+	 * @param idleTimeoutMinutes Number of minutes an idle session is kept before it is terminated
+	 */
+	public APISessionPool(int maxSize, int idleTimeoutMinutes)
+	{
+		this.idleSessions = new HashMap<String, LinkedList<APISession>>();
+		this.activeSessions = new HashMap<APISession, String>();
+		this.idleCount = 0;
+		setMaxSize(maxSize);
+		setIdleTimeout(idleTimeoutMinutes);
+		evictionTimer = new Timer("Integrity API Session Pool Evictor", true);
+		evictionTimer.schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				evictIdleSessions();
+			}
+		}, EVICTION_INTERVAL, EVICTION_INTERVAL);
+		Logger.debug("Integrity API Session Pool created with a maximum of " + this.maxSize + " idle sessions!");
+	}
+
+	/**
+	 * Computes the pool key for a set of connection settings
+	 * The password is part of the key, so changed credentials will never share a session
+	 */
+	private static String getKey(String ipHost, int ipPort, String host, int port, String user, String password, boolean secure)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(null == ipHost ? "" : ipHost).append(':').append(ipPort).append('|');
+		sb.append(host).append(':').append(port).append('|');
+		sb.append(user).append('|').append(secure).append('|');
+		sb.append(DigestUtils.md5Hex(null == password ? "" : password));
+		return sb.toString();
+	}
+
+	/**
+	 * Borrows an authenticated API Session from the pool, establishing a new one if required
+	 * Every session borrowed must be given back using returnSession()
+	 * @return An authenticated API Session
+	 * @throws APIException
+	 */
+	public APISession borrowSession(String ipHost, int ipPort, String host, int port, String user, String password, boolean secure) throws APIException
+	{
+		String key = getKey(ipHost, ipPort, host, port, user, password, secure);
+
+		// Look for an idle session first, otherwise establish a new one
+		while( true )
+		{
+			APISession api = takeIdle(key);
+			if( null == api )
+			{
+				break;
+			}
+
+			// Validate sessions that have been sitting around for a while
+			if( System.currentTimeMillis() - api.getLastUsed() > VALIDATION_INTERVAL )
+			{
+				try
+				{
+					api.ping();
+				}
+				catch(APIException aex)
+				{
+					Logger.debug("Discarding stale pooled session " + user + "@" + host + ":" + port);
+					discard(api);
+					continue;
+				}
+			}
+			Logger.debug("Reusing pooled session " + user + "@" + host + ":" + port);
+			return api;
+		}
+
+		// The pool only limits the sessions it keeps idle, so a borrower never has to wait for a session
+		APISession api = new APISession(ipHost, ipPort, host, port, user, password, secure);
+		synchronized(this)
+		{
+			activeSessions.put(api, key);
+		}
+		return api;
+	}
+
+	/**
+	 * Takes the most recently used idle session for the key
+	 * @param key Pool key for the connection settings
+	 * @return An idle session or null if the caller should create a new session
+	 */
+	private synchronized APISession takeIdle(String key)
+	{
+		LinkedList<APISession> idle = idleSessions.get(key);
+		if( null == idle || idle.size() == 0 )
+		{
+			return null;
+		}
+		// Most recently used sessions are at the front
+		APISession api = idle.removeFirst();
+		idleCount--;
+		activeSessions.put(api, key);
+		return api;
+	}
+
+	/**
+	 * Returns a borrowed session to the pool
+	 * Unhealthy sessions are terminated rather than handed out again
+	 * @param api API Session obtained from borrowSession()
+	 */
+	public void returnSession(APISession api)
+	{
+		if( null == api )
+		{
+			return;
+		}
+
+		// Make sure we don't hand out a session with an active interim command runner
+		try
+		{
+			api.releaseInterimRunner();
+		}
+		catch(APIException aex)
+		{
+			Logger.debug("Failed to release interim command runner for pooled session!");
+			discard(api);
+			return;
+		}
+
+		APISession terminate = null;
+		synchronized(this)
+		{
+			String key = activeSessions.remove(api);
+			if( null == key || ! api.isHealthy() || maxSize <= 0 )
+			{
+				terminate = api;
+			}
+			else
+			{
+				// Make room by evicting the least recently used idle session
+				if( idleCount >= maxSize )
+				{
+					terminate = removeOldestIdle();
+				}
+				LinkedList<APISession> idle = idleSessions.get(key);
+				if( null == idle )
+				{
+					idle = new LinkedList<APISession>();
+					idleSessions.put(key, idle);
+				}
+				idle.addFirst(api);
+				idleCount++;
+			}
+		}
+
+		if( null != terminate )
+		{
+			terminateSession(terminate);
+		}
+	}
+
+	/**
+	 * Removes a borrowed session from the pool and terminates it
+	 * @param api API Session obtained from borrowSession()
+	 */
+	private void discard(APISession api)
+	{
+		synchronized(this)
+		{
+			activeSessions.remove(api);
+		}
+		terminateSession(api);
+	}
+
+	/**
+	 * Removes the least recently used idle session across all keys
+	 * @return Least recently used idle session
+	 */
+	private synchronized APISession removeOldestIdle()
+	{
+		LinkedList<APISession> oldestList = null;
+		for( LinkedList<APISession> idle : idleSessions.values() )
+		{
+			if( idle.size() > 0 && (null == oldestList || idle.getLast().getLastUsed() < oldestList.getLast().getLastUsed()) )
+			{
+				oldestList = idle;
+			}
+		}
+		idleCount--;
+		return oldestList.removeLast();
+	}
+
+	/**
+	 * Terminates all sessions that have been idle longer than the idle timeout
+	 */
+	public void evictIdleSessions()
+	{
+		LinkedList<APISession> expired = new LinkedList<APISession>();
+		synchronized(this)
+		{
+			long now = System.currentTimeMillis();
+			for( Iterator<LinkedList<APISession>> it = idleSessions.values().iterator(); it.hasNext(); )
+			{
+				LinkedList<APISession> idle = it.next();
+				while( idle.size() > 0 && now - idle.getLast().getLastUsed() > idleTimeout )
+				{
+					expired.add(idle.removeLast());
+					idleCount--;
+				}
+				if( idle.size() == 0 )
+				{
+					it.remove();
+				}
+			}
+		}
+
+		for( APISession api : expired )
+		{
+			Logger.debug("Evicting idle pooled session " + api.getUserName() + "@" + api.getHostName() + ":" + api.getPort());
+			terminateSession(api);
+		}
+	}
+
+	/**
+	 * Terminates a session outside of the pool lock
+	 * @param api API Session
+	 */
+	private void terminateSession(APISession api)
+	{
+		if( null != api )
+		{
+			api.Terminate();
+		}
+	}
+
+	/**
+	 * Terminates all idle sessions and stops the eviction timer
+	 */
+	public void shutdown()
+	{
+		evictionTimer.cancel();
+		LinkedList<APISession> idle = new LinkedList<APISession>();
+		synchronized(this)
+		{
+			for( LinkedList<APISession> sessions : idleSessions.values() )
+			{
+				idle.addAll(sessions);
+			}
+			idleSessions.clear();
+			idleCount = 0;
+		}
+
+		for( APISession api : idle )
+		{
+			terminateSession(api);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of idle sessions kept by this pool; the number of borrowed sessions isn't limited
+	 * A value of zero (or less) disables pooling, i.e. every session is terminated when returned
+	 * @param maxSize
+	 */
+	public synchronized void setMaxSize(int maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Sets the number of minutes an idle session is kept before it is terminated
+	 * @param idleTimeoutMinutes
+	 */
+	public synchronized void setIdleTimeout(int idleTimeoutMinutes)
+	{
+		this.idleTimeout = idleTimeoutMinutes * 60 * 1000L;
+	}
+
+	/**
+	 * Returns the number of sessions currently borrowed from this pool
+	 * @return
+	 */
+	public synchronized int getActiveCount()
+	{
+		return activeSessions.size();
+	}
+
+	/**
+	 * Returns the number of idle sessions currently held by this pool
+	 * @return
+	 */
+	public synchronized int getIdleCount()
+	{
+		return idleCount;
+	}
+}
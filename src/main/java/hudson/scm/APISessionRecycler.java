@@ -0,0 +1,269 @@
+package hudson.scm;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Callable;
+
+/**
+ * Every si projectco leaves a file handle open on the Integrity Server until the session is released.
+ * This class decides when the API Session used by a checkout needs to be recycled, either after a
+ * configured number of checkouts or adaptively when the command latency starts to degrade.
+ * A warm standby session is established in the background ahead of time, so the checkout never
+ * stalls while the old session is released and a new one (including the ping) is created.
+ */
+public class APISessionRecycler
+{
+	// In adaptive mode, sessions will always be recycled after these many open file handles
+	public static final int ADAPTIVE_MAX_HANDLES = 2000;
+	// In adaptive mode, sessions will not be recycled for latency reasons before these many open file handles
+	private static final int ADAPTIVE_MIN_HANDLES = 100;
+	// Number of commands used to compute the latency baseline of a fresh session
+	private static final int BASELINE_SAMPLES = 20;
+	// Latency degradation (compared to the baseline) that triggers a standby session and a recycle
+	private static final double STANDBY_LATENCY_FACTOR = 1.5;
+	private static final double RECYCLE_LATENCY_FACTOR = 2.0;
+	// Percentage of the fixed threshold at which the standby session is prepared
+	private static final double STANDBY_THRESHOLD_RATIO = 0.8;
+	// Weight of the latest sample in the moving latency average
+	private static final double EWMA_WEIGHT = 0.1;
+
+	private final IntegrityCheckoutTask sessionFactory;
+	private final int threshold;
+	private final ExecutorService background;
+	private APISession api;
+	private Future<APISession> standby;
+	private int openFileHandles;
+	private double baselineLatency;
+	private double averageLatency;
+	private int recycleCount;
+	private int stallCount;
+
+	/**
+	 * Creates a new session recycler
+	 * @param sessionFactory Checkout task used to establish new API Sessions
+	 * @param api The initial API Session
+	 * @param threshold Number of open file handles after which the session is recycled; 0 to adapt to the server's latency
+	 */
+	public APISessionRecycler(IntegrityCheckoutTask sessionFactory, APISession api, int threshold)
+	{
+		this.sessionFactory = sessionFactory;
+		this.api = api;
+		this.threshold = threshold;
+		this.background = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "Integrity API Session Recycler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		resetStatistics();
+	}
+
+	/**
+	 * Returns the API Session that should be used for the next command
+	 * @return
+	 */
+	public APISession getSession()
+	{
+		return api;
+	}
+
+	/**
+	 * Records the completion of a command that leaves a file handle open on the server
+	 * and recycles the session if the policy calls for it
+	 * @param startTime Time (in milliseconds) when the command was started
+	 */
+	public void commandCompleted(long startTime)
+	{
+		commandCompleted(startTime, 1);
+	}
+
+	/**
+	 * Records the completion of a command that leaves several file handles open on the server
+	 * (i.e. a batched si projectco) and recycles the session if the policy calls for it
+	 * @param startTime Time (in milliseconds) when the command was started
+	 * @param fileHandles Number of file handles opened by the command
+	 */
+	public void commandCompleted(long startTime, int fileHandles)
+	{
+		openFileHandles += fileHandles;
+		// Latency is tracked per file handle, so batched commands compare with single checkouts
+		double latency = (double)(System.currentTimeMillis() - startTime) / fileHandles;
+		if( openFileHandles <= BASELINE_SAMPLES )
+		{
+			// Build up the baseline for this session
+			baselineLatency += (latency - baselineLatency) * fileHandles / openFileHandles;
+			averageLatency = baselineLatency;
+		}
+		else
+		{
+			averageLatency = (EWMA_WEIGHT * latency) + ((1 - EWMA_WEIGHT) * averageLatency);
+		}
+
+		if( needsRecycle() )
+		{
+			recycle();
+		}
+		else if( null == standby && needsStandby() )
+		{
+			prepareStandby();
+		}
+	}
+
+	/**
+	 * Returns true if the standby session should be established
+	 */
+	private boolean needsStandby()
+	{
+		if( threshold > 0 )
+		{
+			return openFileHandles >= threshold * STANDBY_THRESHOLD_RATIO;
+		}
+		return openFileHandles >= ADAPTIVE_MAX_HANDLES * STANDBY_THRESHOLD_RATIO ||
+				(openFileHandles >= ADAPTIVE_MIN_HANDLES && averageLatency > baselineLatency * STANDBY_LATENCY_FACTOR);
+	}
+
+	/**
+	 * Returns true if the current session should be recycled now
+	 */
+	private boolean needsRecycle()
+	{
+		if( threshold > 0 )
+		{
+			return openFileHandles >= threshold;
+		}
+		return openFileHandles >= ADAPTIVE_MAX_HANDLES ||
+				(openFileHandles >= ADAPTIVE_MIN_HANDLES && averageLatency > baselineLatency * RECYCLE_LATENCY_FACTOR);
+	}
+
+	/**
+	 * Establishes the standby session on the background thread
+	 */
+	private void prepareStandby()
+	{
+		Logger.debug("Preparing standby API Session after " + openFileHandles + " open file handles...");
+		standby = background.submit(new Callable<APISession>()
+		{
+			public APISession call()
+			{
+				return sessionFactory.createAPISession();
+			}
+		});
+	}
+
+	/**
+	 * Swaps the current session for the standby session and releases the old one in the background
+	 */
+	private void recycle()
+	{
+		if( null == standby )
+		{
+			prepareStandby();
+		}
+
+		APISession next = null;
+		try
+		{
+			if( ! standby.isDone() )
+			{
+				stallCount++;
+			}
+			next = standby.get();
+		}
+		catch(InterruptedException iex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException eex)
+		{
+			Logger.error("Failed to establish standby API Session: " + eex.getMessage());
+		}
+		standby = null;
+
+		if( null == next )
+		{
+			// Keep working with the current session, we'll try again after the next command
+			Logger.warn("Unable to recycle API Session after " + openFileHandles + " open file handles!");
+			return;
+		}
+
+		Logger.debug("Recycling API Session after " + openFileHandles + " open file handles (average latency " +
+						Math.round(averageLatency) + "ms, baseline " + Math.round(baselineLatency) + "ms)");
+		final APISession old = api;
+		api = next;
+		recycleCount++;
+		resetStatistics();
+		background.submit(new Runnable()
+		{
+			public void run()
+			{
+				old.Terminate();
+			}
+		});
+	}
+
+	/**
+	 * Resets the handle count and latency statistics for a fresh session
+	 */
+	private void resetStatistics()
+	{
+		openFileHandles = 0;
+		baselineLatency = 0;
+		averageLatency = 0;
+	}
+
+	/**
+	 * Terminates the current and standby sessions and stops the background thread
+	 */
+	public void close()
+	{
+		if( null != standby )
+		{
+			final Future<APISession> pending = standby;
+			standby = null;
+			background.submit(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						APISession unused = pending.get();
+						if( null != unused ){ unused.Terminate(); }
+					}
+					catch(Exception e)
+					{
+						Logger.debug("Standby API Session could not be released: " + e.getMessage());
+					}
+				}
+			});
+		}
+		if( null != api )
+		{
+			api.Terminate();
+		}
+		background.shutdown();
+	}
+
+	/**
+	 * Returns the number of times the API Session was recycled
+	 * @return
+	 */
+	public int getRecycleCount()
+	{
+		return recycleCount;
+	}
+
+	/**
+	 * Returns the number of times a recycle had to wait for the standby session
+	 * @return
+	 */
+	public int getStallCount()
+	{
+		return stallCount;
+	}
+}
@@ -0,0 +1,47 @@
+package hudson.scm;
+
+import java.io.IOException;
+
+import com.mks.api.Command;
+import com.mks.api.response.APIException;
+import com.mks.api.response.Response;
+
+/**
+ * The transport an APISession uses to send commands to an Integrity Server.
+ * Retries, admission control and metrics are handled by the APISession, so a 
+ * transport only needs to execute a single command and manage its own connection.
+ */
+public interface APITransport
+{
+	/**
+	 * Executes a command and returns its complete response
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @param impersonateUser The user to impersonate or an empty string
+	 * @return Integrity API Response Object
+	 * @throws APIException
+	 */
+	Response execute(Command cmd, String impersonateUser) throws APIException;
+
+	/**
+	 * Executes a command whose response is streamed back while it is being read
+	 * Only one such command is active per transport; starting another one interrupts the previous command
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @return Integrity API Response Object
+	 * @throws APIException
+	 */
+	Response executeWithInterim(Command cmd) throws APIException;
+
+	/**
+	 * Interrupts and releases the command started by executeWithInterim(), if any
+	 * This may be called from another thread to cancel a command whose response is still being read
+	 * @throws APIException
+	 */
+	void releaseInterim() throws APIException;
+
+	/**
+	 * Releases all resources held by this transport
+	 * @throws APIException
+	 * @throws IOException
+	 */
+	void release() throws APIException, IOException;
+}
@@ -0,0 +1,238 @@
+package hudson.scm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.mks.api.CmdRunner;
+import com.mks.api.Command;
+import com.mks.api.IntegrationPoint;
+import com.mks.api.IntegrationPointFactory;
+import com.mks.api.Session;
+import com.mks.api.response.APIException;
+import com.mks.api.response.Response;
+
+/**
+ * The default transport, which talks to an Integrity Server (or a client acting as server)
+ * through an Integrity API Integration Point and Session
+ */
+public class IntegrationPointTransport implements APITransport
+{
+	// Store the API Version
+	public static final String VERSION = IntegrationPointFactory.getAPIVersion().substring(0, 
+											IntegrationPointFactory.getAPIVersion().indexOf(' '));
+	public static final int MAJOR_VERSION = Integer.parseInt(VERSION.substring(0, VERSION.indexOf('.')));	
+	public static final int MINOR_VERSION = Integer.parseInt(VERSION.substring(VERSION.indexOf('.')+1, VERSION.length()));
+	// Command runners are expensive to set up, so they're reused across commands
+	private static final int MAX_IDLE_RUNNERS = 8;
+
+	private final String hostName;
+	private final int port;
+	private final String userName;
+	private final String password;
+	private final IntegrationPoint ip;
+	private final Session session;
+	private CmdRunner icr;
+	private final Map<String, LinkedList<CmdRunner>> idleRunners = new HashMap<String, LinkedList<CmdRunner>>();
+	private volatile boolean released;
+
+	/**
+	 * Creates an Integration Point and Session to the Integrity Server
+	 * @throws APIException
+	 */
+	public IntegrationPointTransport(String ipHost, int ipPortNum, 
+					String host, int portNum, String user, String paswd, boolean secure) throws APIException
+	{
+		// Create a Server Integration Point to a client or the target server itself
+		if( null != ipHost && ipHost.length() > 0 && ipPortNum > 0 )
+		{
+			// Connect via the client, using "client as server"
+			ip = IntegrationPointFactory.getInstance().createIntegrationPoint(ipHost, ipPortNum, secure, MAJOR_VERSION, MINOR_VERSION);
+		}
+		else
+		{
+			// Directly to the server...
+			ip = IntegrationPointFactory.getInstance().createIntegrationPoint(host, portNum, secure, MAJOR_VERSION, MINOR_VERSION);
+		}
+		// Create the Session
+		session = ip.createSession(user, paswd);
+		hostName = host;
+		port = portNum;
+		userName = user;
+		password = paswd;
+	}
+
+	/**
+	 * Executes a command using a command runner from this transport's runner pool
+	 * Runners are only ever configured once, so the same runner is never shared 
+	 * between different impersonation users
+	 */
+	public Response execute(Command cmd, String impersonateUser) throws APIException
+	{
+		CmdRunner cmdRunner = acquireCmdRunner(impersonateUser);
+		boolean reusable = false;
+		try
+		{
+			Response res = cmdRunner.execute(cmd);
+			reusable = true;
+			return res;
+		}
+		catch(APIException aex)
+		{
+			// A command failure doesn't affect the runner, but an API failure might have
+			reusable = (null != aex.getResponse());
+			throw aex;
+		}
+		finally
+		{
+			releaseCmdRunner(cmdRunner, impersonateUser, reusable);
+		}
+	}
+
+	public Response executeWithInterim(Command cmd) throws APIException
+	{
+		CmdRunner runner = createCmdRunner();
+		CmdRunner previous;
+		synchronized(this)
+		{
+			previous = icr;
+			icr = runner;
+		}
+
+		// Terminate the previous command runner, if applicable
+		if( null != previous )
+		{
+			previous.interrupt();
+			previous.release();
+		}
+
+		// The monitor isn't held while waiting for the interim response, so releaseInterim() can cancel the command
+		return runner.executeWithInterim(cmd, false);
+	}
+
+	public void releaseInterim() throws APIException
+	{
+		CmdRunner runner;
+		synchronized(this)
+		{
+			runner = icr;
+			icr = null;
+		}
+
+		if( null != runner )
+		{
+			runner.interrupt();
+			runner.release();
+		}
+	}
+
+	public void release() throws APIException, IOException
+	{
+		released = true;
+		releaseInterim();
+		releaseIdleRunners();
+		session.release();
+		ip.release();
+	}
+
+	/**
+	 * Creates a new command runner with this transport's defaults
+	 * @return
+	 * @throws APIException
+	 */
+	private CmdRunner createCmdRunner() throws APIException
+	{
+		CmdRunner cmdRunner = session.createCmdRunner();
+		cmdRunner.setDefaultHostname(hostName);
+		cmdRunner.setDefaultPort(port);
+		cmdRunner.setDefaultUsername(userName);
+		cmdRunner.setDefaultPassword(password);
+		return cmdRunner;
+	}
+
+	/**
+	 * Obtains an idle command runner or creates a new one with this transport's defaults
+	 * @param impersonateUser The user to impersonate or an empty string
+	 * @return Command runner ready to execute a command
+	 * @throws APIException
+	 */
+	private CmdRunner acquireCmdRunner(String impersonateUser) throws APIException
+	{
+		synchronized(idleRunners)
+		{
+			LinkedList<CmdRunner> runners = idleRunners.get(impersonateUser);
+			if( null != runners && runners.size() > 0 )
+			{
+				return runners.removeFirst();
+			}
+		}
+		
+		CmdRunner cmdRunner = createCmdRunner();
+		if( impersonateUser.length() > 0 )
+		{
+			cmdRunner.setDefaultImpersonationUser(impersonateUser);
+		}
+		return cmdRunner;
+	}
+	
+	/**
+	 * Hands a command runner back to the runner pool, or releases it if it can't be reused
+	 * @param cmdRunner Command runner obtained from acquireCmdRunner()
+	 * @param impersonateUser The user the runner was configured to impersonate
+	 * @param reusable Indicates whether or not the runner is in a good state
+	 */
+	private void releaseCmdRunner(CmdRunner cmdRunner, String impersonateUser, boolean reusable)
+	{
+		if( reusable && ! released )
+		{
+			synchronized(idleRunners)
+			{
+				LinkedList<CmdRunner> runners = idleRunners.get(impersonateUser);
+				if( null == runners )
+				{
+					runners = new LinkedList<CmdRunner>();
+					idleRunners.put(impersonateUser, runners);
+				}
+				if( runners.size() < MAX_IDLE_RUNNERS )
+				{
+					runners.addFirst(cmdRunner);
+					return;
+				}
+			}
+		}
+		
+		try
+		{
+			cmdRunner.release();
+		}
+		catch(APIException aex)
+		{
+			Logger.debug("Caught API Exception when releasing command runner!");
+		}
+	}
+	
+	/**
+	 * Releases all the idle command runners held by this transport
+	 * @throws APIException
+	 */
+	private void releaseIdleRunners() throws APIException
+	{
+		List<CmdRunner> runners = new ArrayList<CmdRunner>();
+		synchronized(idleRunners)
+		{
+			for( LinkedList<CmdRunner> idle : idleRunners.values() )
+			{
+				runners.addAll(idle);
+			}
+			idleRunners.clear();
+		}
+		
+		for( CmdRunner cmdRunner : runners )
+		{
+			cmdRunner.release();
+		}
+	}
+}
@@ -1,20 +1,22 @@
 package hudson.scm;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-
-import org.apache.commons.codec.digest.DigestUtils;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.mks.api.Command;
 import com.mks.api.Option;
 import com.mks.api.FileOption;
 import com.mks.api.response.APIException;
 import com.mks.api.response.Response;
+import com.mks.api.response.WorkItem;
 
 /**
  * This class is intended to represent an Integrity CM Member
@@ -138,7 +140,94 @@ public final class IntegrityCMMember
 			return false;
 		}
 	}
-	
+
+	/**
+	 * Performs a checkout of several Integrity Source Files with a single command
+	 * All members must belong to the same project/subproject and be checked out at the same revision
+	 * @param api Integrity API Session
+	 * @param configPath Full server side path for the members' project/subproject
+	 * @param memberIDs Full server side paths for the Integrity members
+	 * @param memberRev Member revision string shared by all members
+	 * @param targetFiles File objects representing the target location for each member, in the same order as memberIDs
+	 * @param restoreTimestamp Toggles whether or not the original timestamp should be used
+	 * @param lineTerminator Sets the line terminator for the files (native, crlf, or lf)
+	 * @return The member IDs that could not be checked out
+	 * @throws APIException if the command failed without reporting the result of the individual members
+	 */
+	public static final Set<String> checkout(APISession api, String configPath, List<String> memberIDs, String memberRev,
+							List<File> targetFiles, boolean restoreTimestamp, String lineTerminator) throws APIException
+	{
+		// Construct the project check-co command
+		Command coCMD = new Command(Command.SI, "projectco");
+		coCMD.addOption(new Option("overwriteExisting"));
+		coCMD.addOption(new Option("nolock"));
+		coCMD.addOption(new Option("project", configPath));
+		coCMD.addOption(new Option(restoreTimestamp ? "restoreTimestamp" : "norestoreTimestamp"));
+		coCMD.addOption(new Option("lineTerminator", lineTerminator));
+		coCMD.addOption(new Option("revision", memberRev));
+		// Add a target file for each member selection
+		for( int i = 0; i < memberIDs.size(); i++ )
+		{
+			File targetFile = targetFiles.get(i);
+			if( ! targetFile.getParentFile().isDirectory() )
+			{
+				targetFile.getParentFile().mkdirs();
+			}
+			coCMD.addOption(new FileOption("targetFile", targetFile));
+			coCMD.addSelection(memberIDs.get(i));
+		}
+
+		// Execute the checkout command
+		Response res = null;
+		try
+		{
+			res = api.runCommand(coCMD);
+			Logger.debug("Command: " + res.getCommandString() + " completed with exit code " + res.getExitCode());
+		}
+		catch(APIException aex)
+		{
+			// Some of the members may have been checked out, the response tells us which ones failed
+			res = aex.getResponse();
+			if( null == res )
+			{
+				throw aex;
+			}
+			ExceptionHandler eh = new ExceptionHandler(aex);
+			Logger.warn("Batched checkout partially failed: " + eh.getMessage());
+			Logger.debug(eh.getCommand() + " returned exit code " + eh.getExitCode());
+		}
+
+		// Map the work items back to the individual members; without a work item there's no telling
+		// whether an existing target file was updated, so the member is treated as failed
+		Set<String> failed = new HashSet<String>();
+		for( int i = 0; i < memberIDs.size(); i++ )
+		{
+			String memberID = memberIDs.get(i);
+			WorkItem wi = getWorkItem(res, memberID);
+			if( null == wi || null != wi.getAPIException() || ! targetFiles.get(i).isFile() )
+			{
+				Logger.debug("Batched checkout of " + memberID + " failed!");
+				failed.add(memberID);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Returns the work item for a member or null if the response doesn't contain one
+	 */
+	private static WorkItem getWorkItem(Response res, String memberID)
+	{
+		try
+		{
+			return res.getWorkItem(memberID);
+		}
+		catch(NoSuchElementException nsee)
+		{
+			return null;
+		}
+	}
+
 	/**
 	 * Performs a revision info on this Integrity Source File
 	 * @param api Integrity API Session
@@ -152,60 +241,127 @@ public final class IntegrityCMMember
 		// Initialize the return value
 		String author = "unknown";
 		
-		// Construct the revision-info command
-		Command revInfoCMD = new Command(Command.SI, "revisioninfo");
-		revInfoCMD.addOption(new Option("project", configPath));
-		revInfoCMD.addOption(new Option("revision", memberRev));
-		// Add the member selection
-		revInfoCMD.addSelection(memberID);
 		try
 		{
 			// Execute the revision-info command
-			Response res = api.runCommand(revInfoCMD);
-			Logger.debug("Command: " + res.getCommandString() + " completed with exit code " + res.getExitCode());			
-			// Return the author associated with this update
-			if( res.getExitCode() == 0 )
-			{
-				author = res.getWorkItem(memberID).getField("author").getValueAsString();
-			}
+			Response res = api.runCommand(getRevisionInfoCommand(configPath, memberID, memberRev));
+			author = parseAuthor(res, memberID, author);
 		}
 		catch(APIException aex)
 		{
-			ExceptionHandler eh = new ExceptionHandler(aex);
-			Logger.error("API Exception caught...");
-    		Logger.error(eh.getMessage());
-    		Logger.debug(eh.getCommand() + " returned exit code " + eh.getExitCode());
-    		aex.printStackTrace();
+			logAuthorException(aex);
 		}	
 		
 		return author;
 	}
 	
 	/**
-	 * Returns the MD5 checksum hash for a file
-	 * @param targetFile File object representing the target file
-	 * @return
-	 * @throws IOException
+	 * Submits a revision info on this Integrity Source File for asynchronous execution, so that
+	 * several author lookups can overlap their round-trips to the server
+	 * @param api Integrity API Session
+	 * @param configPath Full project configuration path
+	 * @param memberID Member ID for this file
+	 * @param memberRev Member Revision for this file
+	 * @return Pending revision info response, to be resolved using getAuthor(Future, String)
+	 * @throws InterruptedException
 	 */
-	public static final String getMD5Checksum(File targetFile) throws IOException
+	public static Future<Response> submitAuthorLookup(APISession api, String configPath, String memberID, String memberRev) throws InterruptedException
 	{
-		String result = "";
-		InputStream fis = null;
+		return api.submit(getRevisionInfoCommand(configPath, memberID, memberRev));
+	}
+	
+	/**
+	 * Waits for a revision info submitted by submitAuthorLookup() to complete
+	 * @param pendingRevInfo Pending revision info response
+	 * @param memberID Member ID for this file
+	 * @return User responsible for making this change
+	 */
+	public static String getAuthor(Future<Response> pendingRevInfo, String memberID)
+	{
+		// Initialize the return value
+		String author = "unknown";
+		
 		try
 		{
-			Logger.debug("Generating checksum for file " + targetFile.getAbsolutePath());
-			fis =  new FileInputStream(targetFile);
-			result = DigestUtils.md5Hex(fis);
+			author = parseAuthor(pendingRevInfo.get(), memberID, author);
+		}
+		catch(APIException aex)
+		{
+			logAuthorException(aex);
 		}
-		catch(FileNotFoundException fnfe)
+		catch(ExecutionException eex)
 		{
-			result = "";
+			if( eex.getCause() instanceof APIException )
+			{
+				logAuthorException((APIException)eex.getCause());
+			}
+			else
+			{
+				Logger.error("Failed to obtain author for " + memberID + ": " + eex.getCause());
+			}
 		}
-		finally
+		catch(InterruptedException iex)
+		{
+			Logger.error("Interrupted while obtaining author for " + memberID);
+			pendingRevInfo.cancel(true);
+			Thread.currentThread().interrupt();
+		}
+		
+		return author;
+	}
+	
+	/**
+	 * Constructs the revision info command for an Integrity Source File
+	 */
+	private static Command getRevisionInfoCommand(String configPath, String memberID, String memberRev)
+	{
+		// Construct the revision-info command
+		Command revInfoCMD = new Command(Command.SI, "revisioninfo");
+		revInfoCMD.addOption(new Option("project", configPath));
+		revInfoCMD.addOption(new Option("revision", memberRev));
+		// Add the member selection
+		revInfoCMD.addSelection(memberID);
+		return revInfoCMD;
+	}
+	
+	/**
+	 * Extracts the author from a revision info response
+	 * @throws APIException
+	 */
+	private static String parseAuthor(Response res, String memberID, String defaultAuthor) throws APIException
+	{
+		Logger.debug("Command: " + res.getCommandString() + " completed with exit code " + res.getExitCode());			
+		// Return the author associated with this update
+		if( res.getExitCode() == 0 )
 		{
-			if( null != fis ){ fis.close(); }
+			return res.getWorkItem(memberID).getField("author").getValueAsString();
 		}
-		return result;
+		return defaultAuthor;
+	}
+	
+	/**
+	 * Logs a failed author lookup
+	 */
+	private static void logAuthorException(APIException aex)
+	{
+		ExceptionHandler eh = new ExceptionHandler(aex);
+		Logger.error("API Exception caught...");
+		Logger.error(eh.getMessage());
+		Logger.debug(eh.getCommand() + " returned exit code " + eh.getExitCode());
+		aex.printStackTrace();
+	}
+	
+	/**
+	 * Returns the MD5 checksum hash for a file
+	 * @param targetFile File object representing the target file
+	 * @return
+	 * @throws IOException
+	 */
+	public static final String getMD5Checksum(File targetFile) throws IOException
+	{
+		Logger.debug("Generating checksum for file " + targetFile.getAbsolutePath());
+		// Large files are read through a file channel instead of a stream
+		return IntegrityChecksumEngine.md5(targetFile);
 	}
 	
 }
@@ -17,7 +17,10 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
 import javax.xml.parsers.DocumentBuilder;
@@ -38,7 +41,6 @@ import com.mks.api.Command;
 import com.mks.api.Option;
 import com.mks.api.response.APIException;
 import com.mks.api.response.Response;
-import com.mks.api.response.WorkItemIterator;
 import com.mks.api.response.WorkItem;
 import com.mks.api.response.Field;
 import com.mks.api.si.SIModelTypeName;
@@ -50,6 +52,8 @@ import com.mks.api.si.SIModelTypeName;
 public class IntegrityCMProject implements Serializable
 {
 	private static final long serialVersionUID = 6452315129657215760L;
+	// Pending author lookups per concurrent command slot; bounds the number of responses held in memory
+	private static final int AUTHOR_LOOKUP_WINDOW = 4;
 	public static final String NORMAL_PROJECT = "Normal";
 	public static final String VARIANT_PROJECT = "Variant";
 	public static final String BUILD_PROJECT = "Build";
@@ -230,11 +234,12 @@ public class IntegrityCMProject implements Serializable
 	
 	/**
 	 * Parses the output from the si viewproject command to get a list of members
-	 * @param wit WorkItemIterator
+	 * @param wit Stream of si viewproject work items
 	 * @throws APIException 
 	 * @throws SQLException 
+	 * @throws InterruptedException if the parsing thread was interrupted, i.e. the build was aborted
 	 */
-	public void parseProject(WorkItemIterator wit) throws APIException, SQLException
+	public void parseProject(WorkItemStream wit) throws APIException, SQLException, InterruptedException
 	{
 		// Setup the Derby DB for this Project
 		Connection db = openProjectDB();
@@ -326,8 +331,9 @@ public class IntegrityCMProject implements Serializable
 	 * @param api
 	 * @throws SQLException
 	 * @throws IOException
+	 * @throws InterruptedException
 	 */
-	public void primeAuthorInformation(APISession api) throws SQLException, IOException
+	public void primeAuthorInformation(APISession api) throws SQLException, IOException, InterruptedException
 	{
 		Connection db = openProjectDB();
 		Statement authSelect = null;
@@ -337,16 +343,22 @@ public class IntegrityCMProject implements Serializable
 			// Create the select statement for the current project
 			authSelect = db.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
 			rs = authSelect.executeQuery(DerbyUtils.AUTHOR_SELECT);
+			// Submit the author lookups ahead of applying them, so their round-trips to the server overlap
+			Map<Integer, Future<Response>> authorLookups = new LinkedHashMap<Integer, Future<Response>>();
+			int window = getAuthorLookupWindow();
 			while( rs.next() )
 			{
 				Hashtable<CM_PROJECT, Object> rowHash = DerbyUtils.getRowData(rs);
-				rs.updateString(CM_PROJECT.AUTHOR.toString(), 
-						IntegrityCMMember.getAuthor(api, 
+				authorLookups.put(rs.getRow(), IntegrityCMMember.submitAuthorLookup(api, 
 											rowHash.get(CM_PROJECT.CONFIG_PATH).toString(),
 											rowHash.get(CM_PROJECT.MEMBER_ID).toString(),
 											rowHash.get(CM_PROJECT.REVISION).toString()));
-				rs.updateRow();
+				if( authorLookups.size() >= window )
+				{
+					updateAuthors(rs, authorLookups);
+				}
 			}
+			updateAuthors(rs, authorLookups);
 			
 			// Commit the updates
 			db.commit();
@@ -364,49 +376,111 @@ public class IntegrityCMProject implements Serializable
 		}
 	}
 	
+	/**
+	 * Returns the number of author lookups submitted before the oldest ones are applied
+	 */
+	private static int getAuthorLookupWindow()
+	{
+		return AUTHOR_LOOKUP_WINDOW * APICommandExecutor.getMaxConcurrentCommands();
+	}
+	
+	/**
+	 * Waits for the submitted author lookups, updates the corresponding rows and clears the lookups
+	 * The cursor is moved back to the row it was on, so a scan of the result set can continue
+	 * @param rs Updatable result set the author lookups were submitted for
+	 * @param authorLookups Pending author lookups keyed by their row number in the result set
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	private void updateAuthors(ResultSet rs, Map<Integer, Future<Response>> authorLookups) throws SQLException, IOException
+	{
+		int currentRow = rs.getRow();
+		for( Map.Entry<Integer, Future<Response>> lookup : authorLookups.entrySet() )
+		{
+			rs.absolute(lookup.getKey());
+			Hashtable<CM_PROJECT, Object> rowHash = DerbyUtils.getRowData(rs);
+			rs.updateString(CM_PROJECT.AUTHOR.toString(), 
+					IntegrityCMMember.getAuthor(lookup.getValue(), rowHash.get(CM_PROJECT.MEMBER_ID).toString()));
+			rs.updateRow();
+		}
+		authorLookups.clear();
+		if( currentRow > 0 )
+		{
+			rs.absolute(currentRow);
+		}
+	}
+	
 	/**
 	 * Updates the underlying Integrity SCM Project table cache with the new checksum information
+	 * Only the members listed in the checksum hashtable are updated, looked up by name
 	 * @param checksumHash Checksum hashtable generated from a checkout operation
+	 * @param batchSize Number of updates sent to the database at once; 0 sends all updates in a single batch
 	 * @throws SQLException
 	 * @throws IOException
 	 */
-	public void updateChecksum(Hashtable<String, String> checksumHash) throws SQLException, IOException
+	public void updateChecksum(Hashtable<String, String> checksumHash, int batchSize) throws SQLException, IOException
 	{
+		if( checksumHash.isEmpty() )
+		{
+			return;
+		}
+		
 		Connection db = openProjectDB();
-		Statement checksumSelect = null;
-		ResultSet rs = null;
+		PreparedStatement checksumUpdate = null;
 		try
 		{
-			// Create the select statement for the current project
-			checksumSelect = db.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-			rs = checksumSelect.executeQuery(DerbyUtils.CHECKSUM_UPDATE);
-			while( rs.next() )
+			// Create the keyed update statement for the current project
+			checksumUpdate = db.prepareStatement(DerbyUtils.CHECKSUM_UPDATE);
+			int pending = 0;
+			int updateCount = 0;
+			for( Map.Entry<String, String> entry : checksumHash.entrySet() )
 			{
-				Hashtable<CM_PROJECT, Object> rowHash = DerbyUtils.getRowData(rs);
-				String newChecksum = checksumHash.get(rowHash.get(CM_PROJECT.NAME).toString());
+				String newChecksum = entry.getValue();
 				if( null != newChecksum && newChecksum.length() > 0 )
 				{
-					rs.updateString(CM_PROJECT.CHECKSUM.toString(), newChecksum);
-					rs.updateRow();
+					checksumUpdate.setString(1, newChecksum);
+					checksumUpdate.setString(2, entry.getKey());
+					checksumUpdate.addBatch();
+					if( ++pending == batchSize )
+					{
+						updateCount += sum(checksumUpdate.executeBatch());
+						pending = 0;
+					}
 				}
 			}
+			if( pending > 0 )
+			{
+				updateCount += sum(checksumUpdate.executeBatch());
+			}
 			
 			// Commit the updates
 			db.commit();
+			Logger.debug("Updated " + updateCount + " checksums for " + checksumHash.size() + " checked out members");
 		}
 		finally
 		{
-			// Release the result set
-			if( null != rs ){ rs.close(); }
-			
 			// Release the statement
-			if( null != checksumSelect ){ checksumSelect.close(); }
+			if( null != checksumUpdate ){ checksumUpdate.close(); }
 			
 			// Close project db connections
 			if( null != db ){ db.close(); }
 		}
 	}
 	
+	/**
+	 * Returns the total number of rows changed by a batch of updates
+	 */
+	private static int sum(int[] updateCounts)
+	{
+		int total = 0;
+		for( int count : updateCounts )
+		{
+			// The driver may only report that a statement succeeded
+			total += (count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count));
+		}
+		return total;
+	}
+	
 	/**
 	 * Compares this version of the project to a previous/new version to determine what are the updates and what was deleted
 	 * @param baselineProjectDB The previous baseline (build) for this Integrity CM Project
@@ -414,8 +488,9 @@ public class IntegrityCMProject implements Serializable
 	 * @param return The total number of changes found in the comparison
 	 * @throws SQLException 
 	 * @throws IOException 
+	 * @throws InterruptedException 
 	 */
-	public int compareBaseline(File baselineProjectDB, APISession api) throws SQLException, IOException
+	public int compareBaseline(File baselineProjectDB, APISession api) throws SQLException, IOException, InterruptedException
 	{
 		// Re-initialize our return variable
 		changeCount = 0;
@@ -456,6 +531,9 @@ public class IntegrityCMProject implements Serializable
 			pjSelect = db.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
 			Logger.debug("Attempting to execute query " + DerbyUtils.DELTA_SELECT);
 			rs = pjSelect.executeQuery(DerbyUtils.DELTA_SELECT);
+			// Author lookups are submitted asynchronously and applied in windows as the comparison proceeds
+			Map<Integer, Future<Response>> authorLookups = new LinkedHashMap<Integer, Future<Response>>();
+			int window = getAuthorLookupWindow();
 			
 			// Now we will compare the adds and updates between the current project and the baseline
 			for( int i = 1; i <= DerbyUtils.getRowCount(rs); i++ )
@@ -478,8 +556,7 @@ public class IntegrityCMProject implements Serializable
 						// Initialize the prior revision
 						rs.updateString(CM_PROJECT.OLD_REVISION.toString(), oldRevision);
 						// Initialize the author information as requested
-						if( ! skipAuthorInfo ){ rs.updateString(CM_PROJECT.AUTHOR.toString(), 
-													IntegrityCMMember.getAuthor(api, 
+						if( ! skipAuthorInfo ){ authorLookups.put(i, IntegrityCMMember.submitAuthorLookup(api, 
 													rowHash.get(CM_PROJECT.CONFIG_PATH).toString(),
 													rowHash.get(CM_PROJECT.MEMBER_ID).toString(),
 													rowHash.get(CM_PROJECT.REVISION).toString())); }
@@ -509,8 +586,7 @@ public class IntegrityCMProject implements Serializable
 				else // We've found a new file
 				{
 					// Initialize the author information as requested
-					if( ! skipAuthorInfo ){ rs.updateString(CM_PROJECT.AUTHOR.toString(), 
-												IntegrityCMMember.getAuthor(api, 
+					if( ! skipAuthorInfo ){ authorLookups.put(i, IntegrityCMMember.submitAuthorLookup(api, 
 												rowHash.get(CM_PROJECT.CONFIG_PATH).toString(),
 												rowHash.get(CM_PROJECT.MEMBER_ID).toString(),
 												rowHash.get(CM_PROJECT.REVISION).toString())); }				
@@ -521,8 +597,17 @@ public class IntegrityCMProject implements Serializable
 				
 				// Update this row in the data source
 				rs.updateRow();				
+				
+				// Apply the oldest author lookups, so only a window of responses is held in memory
+				if( authorLookups.size() >= window )
+				{
+					updateAuthors(rs, authorLookups);
+				}
 			}
 			
+			// Collect the author information for the remaining adds and updates
+			updateAuthors(rs, authorLookups);
+			
 			// Now, we should be left with the drops.  Exist only in the old baseline and not the current one.
 			Enumeration<String> deletedMembers = baselinePJ.keys();
 			while( deletedMembers.hasMoreElements() )
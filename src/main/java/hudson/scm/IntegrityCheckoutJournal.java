@@ -0,0 +1,151 @@
+package hudson.scm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Records the members fetched by a checkout, so a checkout that failed or was aborted can be
+ * resumed by the next build instead of starting over.  The journal lives next to the checkout
+ * directory (i.e. workspace@integrity/checkout.journal), so wiping the workspace for a clean copy
+ * doesn't lose it, and it is deleted as soon as a checkout completes.
+ */
+public class IntegrityCheckoutJournal
+{
+	private static final String JOURNAL_FILE = "checkout.journal";
+	private static final String ENCODING = "UTF-8";
+	// Number of entries written before the journal is flushed to disk
+	private static final int FLUSH_INTERVAL = 100;
+
+	private final File journalFile;
+	// Revision of each member completed by a previous attempt
+	private final Map<String, String> completed;
+	private Writer writer;
+	private int unflushed;
+
+	/**
+	 * Opens the journal for a checkout directory
+	 * Entries of a previous attempt are only picked up if it used the same checkout settings and was
+	 * a clean copy if this one is, as a clean copy relies on the previous attempt having wiped the workspace
+	 * @param checkOutDir Checkout directory
+	 * @param settings Checkout settings affecting the content of the files (i.e. line terminator)
+	 * @param clean Indicates whether this attempt is a clean copy
+	 * @throws IOException
+	 */
+	public IntegrityCheckoutJournal(File checkOutDir, String settings, boolean clean) throws IOException
+	{
+		this.journalFile = new File(new File(checkOutDir.getAbsolutePath() + "@integrity"), JOURNAL_FILE);
+		this.completed = new HashMap<String, String>();
+		String header = checkOutDir.getAbsolutePath() + '\t' + settings + '\t' + (clean ? "clean" : "update");
+		if( journalFile.isFile() )
+		{
+			load(header);
+		}
+
+		journalFile.getParentFile().mkdirs();
+		boolean resume = ! completed.isEmpty();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, resume), ENCODING));
+		if( ! resume )
+		{
+			writer.write(header + '\n');
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Reads the entries of a previous attempt
+	 */
+	private void load(String header) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), ENCODING));
+		try
+		{
+			if( ! header.equals(reader.readLine()) )
+			{
+				Logger.debug("Ignoring checkout journal " + journalFile.getAbsolutePath() + " written with different settings");
+				return;
+			}
+			String line;
+			while( null != (line = reader.readLine()) )
+			{
+				int tab = line.lastIndexOf('\t');
+				// A partially written last line is simply ignored
+				if( tab > 0 )
+				{
+					completed.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+			Logger.debug("Checkout journal " + journalFile.getAbsolutePath() + " lists " + completed.size() + " completed members");
+		}
+		finally
+		{
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Returns the number of members completed by a previous attempt
+	 * @return
+	 */
+	public int getResumableCount()
+	{
+		return completed.size();
+	}
+
+	/**
+	 * Returns true if a previous attempt already checked out this member revision
+	 * @param memberID Full server side path for the Integrity member
+	 * @param memberRev Member revision string
+	 * @return
+	 */
+	public boolean isCompleted(String memberID, String memberRev)
+	{
+		return memberRev.equals(completed.get(memberID));
+	}
+
+	/**
+	 * Records a member revision that was checked out
+	 * @param memberID Full server side path for the Integrity member
+	 * @param memberRev Member revision string
+	 * @throws IOException
+	 */
+	public synchronized void completed(String memberID, String memberRev) throws IOException
+	{
+		writer.write(memberID + '\t' + memberRev + '\n');
+		if( ++unflushed >= FLUSH_INTERVAL )
+		{
+			writer.flush();
+			unflushed = 0;
+		}
+	}
+
+	/**
+	 * Flushes and closes the journal, keeping it for the next attempt
+	 */
+	public synchronized void close()
+	{
+		IOUtils.closeQuietly(writer);
+	}
+
+	/**
+	 * Closes and deletes the journal once the checkout completed
+	 */
+	public synchronized void delete()
+	{
+		close();
+		if( ! journalFile.delete() )
+		{
+			Logger.warn("Failed to delete checkout journal " + journalFile.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,428 @@
+package hudson.scm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Timings and counts of a single checkout, collected by the IntegrityCheckoutTask on the machine
+ * executing the checkout and kept with the build by the IntegrityCheckoutStatisticsAction.
+ */
+@ExportedBean
+public class IntegrityCheckoutStatistics implements Serializable
+{
+	private static final long serialVersionUID = -5512850386409237115L;
+	// Number of slowest members kept
+	private static final int SLOWEST_MEMBERS = 5;
+
+	private final long startTime;
+	private long prepareTime;
+	private long fetchTime;
+	private long cleanupTime;
+	private int memberCount;
+	private int processedCount;
+	private int fetchedCount;
+	private long fetchedBytes;
+	private int addCount;
+	private int updateCount;
+	private int dropCount;
+	private int restoreCount;
+	private int resumedCount;
+	private int cacheHits;
+	private int cacheMisses;
+	private int masterCacheHits;
+	// Slowest members, slowest first
+	private final List<MemberTiming> slowestMembers;
+
+	public IntegrityCheckoutStatistics()
+	{
+		this.startTime = System.currentTimeMillis();
+		this.slowestMembers = new ArrayList<MemberTiming>();
+	}
+
+	/**
+	 * Records a member that was synchronized, whether or not it had to be fetched
+	 */
+	public synchronized void memberProcessed()
+	{
+		processedCount++;
+	}
+
+	/**
+	 * Records a workspace file that was fetched
+	 * @param memberID Full server side path for the Integrity member
+	 * @param length Size of the workspace file in bytes
+	 * @param time Time (in milliseconds) spent fetching the file
+	 */
+	public synchronized void memberFetched(String memberID, long length, long time)
+	{
+		fetchedCount++;
+		fetchedBytes += length;
+		if( slowestMembers.size() < SLOWEST_MEMBERS || time > slowestMembers.get(slowestMembers.size() - 1).getTime() )
+		{
+			int i = 0;
+			while( i < slowestMembers.size() && slowestMembers.get(i).getTime() >= time )
+			{
+				i++;
+			}
+			slowestMembers.add(i, new MemberTiming(memberID, time));
+			if( slowestMembers.size() > SLOWEST_MEMBERS )
+			{
+				slowestMembers.remove(SLOWEST_MEMBERS);
+			}
+		}
+	}
+
+	/**
+	 * Records the duration of the checkout phases
+	 * @param prepareTime Time (in milliseconds) spent connecting and wiping the workspace
+	 * @param fetchTime Time (in milliseconds) spent synchronizing the members
+	 * @param cleanupTime Time (in milliseconds) spent waiting for the folders and deletes to be applied
+	 */
+	public synchronized void setPhaseTimes(long prepareTime, long fetchTime, long cleanupTime)
+	{
+		this.prepareTime = prepareTime;
+		this.fetchTime = fetchTime;
+		this.cleanupTime = cleanupTime;
+	}
+
+	/**
+	 * Records the final counts of the checkout
+	 */
+	public synchronized void setCounts(int memberCount, int addCount, int updateCount, int dropCount, int restoreCount,
+										int resumedCount, int cacheHits, int cacheMisses, int masterCacheHits)
+	{
+		this.memberCount = memberCount;
+		this.addCount = addCount;
+		this.updateCount = updateCount;
+		this.dropCount = dropCount;
+		this.restoreCount = restoreCount;
+		this.resumedCount = resumedCount;
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.masterCacheHits = masterCacheHits;
+	}
+
+	/**
+	 * Adds the fetches and phase times of a follow-up pass over the same workspace, i.e. the pass
+	 * restoring the changed workspace files found by a checkout on a slave
+	 * The member and change counts are kept, as the follow-up pass only covers members already counted
+	 * @param other Statistics of the follow-up pass
+	 */
+	public void merge(IntegrityCheckoutStatistics other)
+	{
+		List<MemberTiming> otherSlowest;
+		long otherPrepare, otherFetch, otherCleanup, otherBytes;
+		int otherFetched, otherRestores, otherResumed, otherHits, otherMisses, otherMasterHits;
+		synchronized(other)
+		{
+			otherSlowest = new ArrayList<MemberTiming>(other.slowestMembers);
+			otherPrepare = other.prepareTime;
+			otherFetch = other.fetchTime;
+			otherCleanup = other.cleanupTime;
+			otherBytes = other.fetchedBytes;
+			otherFetched = other.fetchedCount;
+			otherRestores = other.restoreCount;
+			otherResumed = other.resumedCount;
+			otherHits = other.cacheHits;
+			otherMisses = other.cacheMisses;
+			otherMasterHits = other.masterCacheHits;
+		}
+
+		synchronized(this)
+		{
+			prepareTime += otherPrepare;
+			fetchTime += otherFetch;
+			cleanupTime += otherCleanup;
+			fetchedCount += otherFetched;
+			fetchedBytes += otherBytes;
+			restoreCount += otherRestores;
+			resumedCount += otherResumed;
+			cacheHits += otherHits;
+			cacheMisses += otherMisses;
+			masterCacheHits += otherMasterHits;
+			for( MemberTiming timing : otherSlowest )
+			{
+				int i = 0;
+				while( i < slowestMembers.size() && slowestMembers.get(i).getTime() >= timing.getTime() )
+				{
+					i++;
+				}
+				slowestMembers.add(i, timing);
+			}
+			while( slowestMembers.size() > SLOWEST_MEMBERS )
+			{
+				slowestMembers.remove(SLOWEST_MEMBERS);
+			}
+		}
+	}
+
+	/**
+	 * Returns a progress line for the build log
+	 * @param total Total number of members to be synchronized
+	 * @return
+	 */
+	public synchronized String getProgress(int total)
+	{
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		StringBuilder progress = new StringBuilder();
+		progress.append("Synchronized ").append(processedCount).append(" of ").append(total).append(" files (");
+		progress.append(fetchedCount * 1000L / elapsed).append(" files/s, ").append(fetchedBytes * 1000L / elapsed / 1024).append(" KB/s)");
+		if( processedCount > 0 && processedCount < total )
+		{
+			long remaining = elapsed * (total - processedCount) / processedCount;
+			progress.append(", about ").append(formatTime(remaining)).append(" left");
+		}
+		return progress.toString();
+	}
+
+	/**
+	 * Returns the summary of a completed checkout for the build log
+	 * @return
+	 */
+	public synchronized String getSummary()
+	{
+		long elapsed = Math.max(1, fetchTime);
+		return "Fetched " + fetchedCount + " files (" + (fetchedBytes / 1024) + " KB) in " + formatTime(getTotalTime()) +
+				" at " + (fetchedCount * 1000L / elapsed) + " files/s and " + (fetchedBytes * 1000L / elapsed / 1024) + " KB/s";
+	}
+
+	/**
+	 * Formats a duration for the build log
+	 */
+	private static String formatTime(long millis)
+	{
+		long seconds = millis / 1000;
+		return (seconds >= 60 ? (seconds / 60) + " min " + (seconds % 60) + " s" : seconds + " s");
+	}
+
+	/**
+	 * Returns the time the checkout started
+	 * @return
+	 */
+	@Exported
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) spent connecting and wiping the workspace
+	 * @return
+	 */
+	@Exported
+	public synchronized long getPrepareTime()
+	{
+		return prepareTime;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) spent synchronizing the members
+	 * @return
+	 */
+	@Exported
+	public synchronized long getFetchTime()
+	{
+		return fetchTime;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) spent waiting for the folders and deletes to be applied
+	 * @return
+	 */
+	@Exported
+	public synchronized long getCleanupTime()
+	{
+		return cleanupTime;
+	}
+
+	/**
+	 * Returns the total time (in milliseconds) of the checkout
+	 * @return
+	 */
+	@Exported
+	public synchronized long getTotalTime()
+	{
+		return prepareTime + fetchTime + cleanupTime;
+	}
+
+	/**
+	 * Returns the number of members handed to the checkout
+	 * @return
+	 */
+	@Exported
+	public synchronized int getMemberCount()
+	{
+		return memberCount;
+	}
+
+	/**
+	 * Returns the number of workspace files fetched
+	 * @return
+	 */
+	@Exported
+	public synchronized int getFetchedCount()
+	{
+		return fetchedCount;
+	}
+
+	/**
+	 * Returns the size (in bytes) of the workspace files fetched
+	 * @return
+	 */
+	@Exported
+	public synchronized long getFetchedBytes()
+	{
+		return fetchedBytes;
+	}
+
+	/**
+	 * Returns the number of files fetched per second
+	 * @return
+	 */
+	@Exported
+	public synchronized long getFilesPerSecond()
+	{
+		return fetchedCount * 1000L / Math.max(1, fetchTime);
+	}
+
+	/**
+	 * Returns the number of bytes fetched per second
+	 * @return
+	 */
+	@Exported
+	public synchronized long getBytesPerSecond()
+	{
+		return fetchedBytes * 1000L / Math.max(1, fetchTime);
+	}
+
+	/**
+	 * Returns the number of new files
+	 * @return
+	 */
+	@Exported
+	public synchronized int getAddCount()
+	{
+		return addCount;
+	}
+
+	/**
+	 * Returns the number of updated files
+	 * @return
+	 */
+	@Exported
+	public synchronized int getUpdateCount()
+	{
+		return updateCount;
+	}
+
+	/**
+	 * Returns the number of dropped files
+	 * @return
+	 */
+	@Exported
+	public synchronized int getDropCount()
+	{
+		return dropCount;
+	}
+
+	/**
+	 * Returns the number of changed workspace files restored
+	 * @return
+	 */
+	@Exported
+	public synchronized int getRestoreCount()
+	{
+		return restoreCount;
+	}
+
+	/**
+	 * Returns the number of files kept from a previous checkout attempt
+	 * @return
+	 */
+	@Exported
+	public synchronized int getResumedCount()
+	{
+		return resumedCount;
+	}
+
+	/**
+	 * Returns the number of files served by the member cache
+	 * @return
+	 */
+	@Exported
+	public synchronized int getCacheHits()
+	{
+		return cacheHits;
+	}
+
+	/**
+	 * Returns the number of files not found in the member cache
+	 * @return
+	 */
+	@Exported
+	public synchronized int getCacheMisses()
+	{
+		return cacheMisses;
+	}
+
+	/**
+	 * Returns the number of files served by the master's revision cache
+	 * @return
+	 */
+	@Exported
+	public synchronized int getMasterCacheHits()
+	{
+		return masterCacheHits;
+	}
+
+	/**
+	 * Returns the slowest members of the checkout, slowest first
+	 * @return
+	 */
+	@Exported(inline=true)
+	public synchronized List<MemberTiming> getSlowestMembers()
+	{
+		return new ArrayList<MemberTiming>(slowestMembers);
+	}
+
+	/**
+	 * Time spent fetching a single member
+	 */
+	@ExportedBean
+	public static final class MemberTiming implements Serializable
+	{
+		private static final long serialVersionUID = 2194630957264187319L;
+		private final String memberID;
+		private final long time;
+
+		public MemberTiming(String memberID, long time)
+		{
+			this.memberID = memberID;
+			this.time = time;
+		}
+
+		/**
+		 * Returns the full server side path of the member
+		 * @return
+		 */
+		@Exported
+		public String getMemberID()
+		{
+			return memberID;
+		}
+
+		/**
+		 * Returns the time (in milliseconds) spent fetching the member
+		 * @return
+		 */
+		@Exported
+		public long getTime()
+		{
+			return time;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package hudson.scm;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import hudson.model.Action;
+
+/**
+ * Keeps the timings and counts of the workspace checkout with the build.  The statistics are
+ * shown on the build's 'Integrity Checkout' page and exported through the remote API
+ * (i.e. job/name/api/json?tree=builds[number,actions[statistics[*]]]) for charting across builds.
+ */
+@ExportedBean
+public class IntegrityCheckoutStatisticsAction implements Action
+{
+	private final IntegrityCheckoutStatistics statistics;
+
+	public IntegrityCheckoutStatisticsAction(IntegrityCheckoutStatistics statistics)
+	{
+		this.statistics = statistics;
+	}
+
+	public String getIconFileName()
+	{
+		return "graph.gif";
+	}
+
+	public String getDisplayName()
+	{
+		return "Integrity Checkout";
+	}
+
+	public String getUrlName()
+	{
+		return "integrity-checkout";
+	}
+
+	/**
+	 * Returns the statistics of the checkout
+	 * @return
+	 */
+	@Exported(inline=true)
+	public IntegrityCheckoutStatistics getStatistics()
+	{
+		return statistics;
+	}
+}
@@ -2,9 +2,27 @@ package hudson.scm;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.mks.api.response.APIException;
 import com.mks.api.util.Base64;
@@ -12,13 +30,20 @@ import com.mks.api.util.Base64;
 import hudson.FilePath;
 import hudson.FilePath.FileCallable;
 import hudson.model.BuildListener;
+import hudson.remoting.Pipe;
 import hudson.remoting.VirtualChannel;
 
-public class IntegrityCheckoutTask implements FileCallable<Boolean> 
+public class IntegrityCheckoutTask implements FileCallable<IntegrityCheckoutTask.Result> 
 {
 	private static final long serialVersionUID = 1240357991626897900L;
-	private static final int CHECKOUT_TRESHOLD = 500;	
-	private final List<Hashtable<CM_PROJECT, Object>> projectMembersList;
+	public static final int DEFAULT_RECYCLE_THRESHOLD = 500;
+	// Interval (in milliseconds) between the progress lines written to the build log
+	private static final long PROGRESS_INTERVAL = 15000;
+	// Number of workspace files a checkout thread has hashed ahead before it waits for their checksums
+	private static final int MAX_PENDING_VERIFICATIONS = 1000;
+	// Only used when checking out on the master, slaves receive the members through the member pipe
+	private final transient List<Hashtable<CM_PROJECT, Object>> projectMembersList;
+	private Pipe memberPipe;
 	private final List<String> dirList;
 	private final String lineTerminator;
 	private final boolean restoreTimestamp;
@@ -34,13 +59,52 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
 	private boolean secure;
     private String userName;
     private String password;
+    // Number of checkouts after which the API Session is recycled; 0 adapts to the server
+    private int recycleThreshold;
+    // Number of worker threads (each with its own API Session) used to synchronize the members; 0 or 1 for a serial checkout
+    private int checkoutThreadPoolSize;
+    // Maximum number of members checked out with a single si projectco; 0 or 1 to check out one member at a time
+    private int checkoutBatchSize;
+    // Member cache on the machine executing the checkout; relative paths are resolved against the parent of the workspace
+    private String memberCacheDir;
+    private long memberCacheSize;
+    private transient IntegrityMemberCache memberCache;
+    private final AtomicInteger cacheHits;
+    private final AtomicInteger cacheMisses;
+    // Revision cache on the master shared by all build machines
+    private boolean useMasterCache;
+    private transient VirtualChannel masterChannel;
+    private final AtomicInteger masterCacheHits;
+    // Creates the folders and deletes dropped files in the background
+    private transient IntegrityWorkspaceStage stage;
+    // Size, timestamp and checksum of the workspace files, so unchanged files aren't re-hashed
+    private transient IntegrityFingerprintIndex fingerprints;
+    // Hashes the workspace files on all cores
+    private transient IntegrityChecksumEngine checksumEngine;
+    private boolean fullVerify;
+    // Toggles whether a clean copy moves the old contents aside and deletes them in the background
+    private boolean fastWipe;
+    // Deletes the files that don't belong to the project after an incremental checkout
+    private boolean scrubWorkspace;
+    private transient IntegrityWorkspaceScrubber scrubber;
+    // Admission group shared by the API Sessions of this checkout
+    private transient String admissionGroup;
+    // Metrics of the commands executed on a slave, merged into the master's metrics
+    private APICommandMetrics.Collector commandMetrics;
+    // Journal of the members fetched so far, allowing a failed checkout to be resumed
+    private transient IntegrityCheckoutJournal journal;
+    private final AtomicInteger resumedCount;
     // Checksum Hash
     private Hashtable<String, String> checksumHash;
+    // Relative paths of the manifest entries whose workspace file was changed
+    private final List<String> changedFiles;
+    // Throughput, phase timings and counts handed back to the master
+    private IntegrityCheckoutStatistics statistics;
     // Counts
-    private int addCount;
-    private int updateCount;
-    private int dropCount;
-    private int fetchCount;
+    private final AtomicInteger addCount;
+    private final AtomicInteger updateCount;
+    private final AtomicInteger dropCount;
+    private final AtomicInteger fetchCount;
     
 	
 	
@@ -75,11 +139,22 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
 		this.secure = false;
 		this.userName = "";
 		this.password = "";
-		this.addCount = 0;
-		this.updateCount = 0;
-		this.dropCount = 0;
-		this.fetchCount = 0;
+		this.addCount = new AtomicInteger(0);
+		this.updateCount = new AtomicInteger(0);
+		this.dropCount = new AtomicInteger(0);
+		this.fetchCount = new AtomicInteger(0);
+		this.checkoutThreadPoolSize = 0;
+		this.checkoutBatchSize = 0;
+		this.memberCacheDir = "";
+		this.memberCacheSize = 0;
+		this.cacheHits = new AtomicInteger(0);
+		this.cacheMisses = new AtomicInteger(0);
+		this.useMasterCache = false;
+		this.masterCacheHits = new AtomicInteger(0);
+		this.resumedCount = new AtomicInteger(0);
+		this.recycleThreshold = DEFAULT_RECYCLE_THRESHOLD;
 		this.checksumHash = new Hashtable<String, String>();
+		this.changedFiles = Collections.synchronizedList(new ArrayList<String>());
 		Logger.debug("Integrity Checkout Task Created!");
 	}
 	
@@ -104,6 +179,184 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
 		this.password = password;
 	}
 	
+	/**
+	 * Sets the number of checkouts after which the API Session is recycled to free up file handles on the server
+	 * @param recycleThreshold Number of checkouts or 0 to recycle based on the server's response times
+	 */
+	public void setRecycleThreshold(int recycleThreshold)
+	{
+		this.recycleThreshold = recycleThreshold;
+	}
+	
+	/**
+	 * Sets the number of worker threads used to synchronize the members in parallel
+	 * @param checkoutThreadPoolSize Number of worker threads, each with its own API Session; 0 or 1 for a serial checkout
+	 */
+	public void setCheckoutThreadPoolSize(int checkoutThreadPoolSize)
+	{
+		this.checkoutThreadPoolSize = checkoutThreadPoolSize;
+	}
+	
+	/**
+	 * Streams the member list through a pipe instead of serializing it with this task
+	 * @param memberPipe Pipe the master writes the member list to using IntegrityMemberStream.write()
+	 */
+	public void setMemberPipe(Pipe memberPipe)
+	{
+		this.memberPipe = memberPipe;
+	}
+	
+	/**
+	 * Sets the maximum number of members checked out with a single si projectco
+	 * @param checkoutBatchSize Number of members per command; 0 or 1 to check out one member at a time
+	 */
+	public void setCheckoutBatchSize(int checkoutBatchSize)
+	{
+		this.checkoutBatchSize = checkoutBatchSize;
+	}
+	
+	/**
+	 * Enables the member cache on the machine executing the checkout
+	 * @param memberCacheDir Cache directory; relative paths are resolved against the parent of the workspace; empty to disable the cache
+	 * @param memberCacheSize Maximum size of the cache in megabytes
+	 */
+	public void setMemberCache(String memberCacheDir, int memberCacheSize)
+	{
+		this.memberCacheDir = (null == memberCacheDir ? "" : memberCacheDir.trim());
+		this.memberCacheSize = memberCacheSize * 1024L * 1024L;
+	}
+	
+	/**
+	 * Toggles whether revisions are requested from the master's revision cache before going to the Integrity Server
+	 * @param useMasterCache
+	 */
+	public void setUseMasterCache(boolean useMasterCache)
+	{
+		this.useMasterCache = useMasterCache;
+	}
+	
+	/**
+	 * Toggles whether every unchanged workspace file is re-hashed, instead of only the ones whose size or timestamp changed
+	 * @param fullVerify
+	 */
+	public void setFullVerify(boolean fullVerify)
+	{
+		this.fullVerify = fullVerify;
+	}
+	
+	/**
+	 * Toggles whether a clean copy renames the old workspace out of the way instead of deleting it before the checkout
+	 * @param fastWipe
+	 */
+	public void setFastWipe(boolean fastWipe)
+	{
+		this.fastWipe = fastWipe;
+	}
+	
+	/**
+	 * Toggles whether the files that don't belong to the project are deleted from the workspace
+	 * The member list must include all members of the project, as anything not in it is deleted
+	 * @param scrubWorkspace
+	 */
+	public void setScrubWorkspace(boolean scrubWorkspace)
+	{
+		this.scrubWorkspace = scrubWorkspace;
+	}
+	
+	/**
+	 * Toggles whether the metrics of the commands executed by this task are handed back with the result
+	 * Only needed on slaves, as the metrics of commands executed on the master are recorded there already
+	 * @param collectCommandMetrics
+	 */
+	public void setCollectCommandMetrics(boolean collectCommandMetrics)
+	{
+		this.commandMetrics = (collectCommandMetrics ? new APICommandMetrics.Collector() : null);
+	}
+	
+	/**
+	 * Fills a batch of workspace files from the master's revision cache with a single request
+	 * @param configPath Full server side path for the members' project/subproject
+	 * @param memberIDs Full server side paths for the Integrity members
+	 * @param memberRev Member revision string shared by all members
+	 * @param targetFiles File objects representing the target location for each member, in the same order as memberIDs
+	 * @return The MD5 checksum of each file, null for the ones that weren't served by the master, or null if the master wasn't asked
+	 */
+	private String[] fetchFromMaster(String configPath, List<String> memberIDs, String memberRev, List<File> targetFiles) throws IOException
+	{
+		if( ! useMasterCache || null == masterChannel )
+		{
+			return null;
+		}
+		
+		// The master would apply its own line separator for native line terminators
+		String terminator = lineTerminator;
+		if( "native".equals(lineTerminator) )
+		{
+			terminator = ("\r\n".equals(System.getProperty("line.separator")) ? "crlf" : "lf");
+		}
+		
+		try
+		{
+			IntegrityMemberCache.Entry[] entries = masterChannel.call(new IntegrityRevisionCache.FetchRequest(ipHostName, ipPort, hostName, port, secure,
+																		userName, password, configPath, memberIDs, memberRev, terminator, restoreTimestamp));
+			if( null == entries )
+			{
+				return null;
+			}
+			String[] checksums = new String[entries.length];
+			for( int i = 0; i < entries.length; i++ )
+			{
+				if( null != entries[i] )
+				{
+					checksums[i] = entries[i].writeTo(targetFiles.get(i), restoreTimestamp);
+					Logger.debug("Restored " + targetFiles.get(i).getAbsolutePath() + " from the master's revision cache");
+					masterCacheHits.incrementAndGet();
+				}
+			}
+			return checksums;
+		}
+		catch(InterruptedException iex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while requesting " + memberIDs.size() + " members of " + configPath + " from the master's revision cache!");
+		}
+	}
+	
+	/**
+	 * Fills a workspace file from the member cache, if the revision was checked out on this machine before
+	 * @return The MD5 checksum of the file or null if it wasn't served from the cache
+	 */
+	private String fetchFromCache(String memberID, String memberRev, File targetFile)
+	{
+		if( null == memberCache )
+		{
+			return null;
+		}
+		String key = IntegrityMemberCache.getKey(hostName + ":" + port, memberID, memberRev, lineTerminator, restoreTimestamp);
+		String checksum = memberCache.get(key, targetFile, restoreTimestamp);
+		if( null != checksum )
+		{
+			Logger.debug("Restored " + targetFile.getAbsolutePath() + " from the member cache");
+			cacheHits.incrementAndGet();
+			return checksum;
+		}
+		cacheMisses.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Adds a freshly checked out workspace file to the member cache
+	 * @return The MD5 checksum of the file, computed while it was copied, or null if it wasn't added
+	 */
+	private String addToCache(String memberID, String memberRev, File targetFile)
+	{
+		if( null != memberCache )
+		{
+			return memberCache.put(IntegrityMemberCache.getKey(hostName + ":" + port, memberID, memberRev, lineTerminator, restoreTimestamp), targetFile);
+		}
+		return null;
+	}
+	
     /**
      * Creates an authenticated API Session against the Integrity Server
      * @return An authenticated API Session
@@ -114,7 +367,11 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
     	try
     	{
     		Logger.debug("Creating Integrity API Session...");
-    		return new APISession(ipHostName, ipPort, hostName, port, userName, Base64.decode(password), secure);
+    		APISession api = new APISession(ipHostName, ipPort, hostName, port, userName, Base64.decode(password), secure);
+    		// All workers of this checkout take a single turn at the admission controller
+    		api.setAdmissionGroup(admissionGroup);
+    		api.setMetricsCollector(commandMetrics);
+    		return api;
     	}
     	catch(APIException aex)
     	{
@@ -128,43 +385,594 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
     }
 	
 	/**
-	 * Creates the folder structure for the project's contents allowing empty folders to be created
-	 * @param workspace
+	 * Returns the checksum of a workspace file, using the fingerprint index when available
+	 * @param targetFile Workspace file
+	 * @return
+	 * @throws IOException
 	 */
-	private void createFolderStructure(FilePath workspace)
+	private String getWorkspaceChecksum(File targetFile) throws IOException
 	{
-		Iterator<String> folders = dirList.iterator();
-		while( folders.hasNext() )
+		return (null != fingerprints ? fingerprints.getChecksum(targetFile) : IntegrityCMMember.getMD5Checksum(targetFile));
+	}
+	
+	/**
+	 * Checks out a single member and lets the recycler know another file handle was opened on the server
+	 * @param recycler Session recycler providing the API Session
+	 * @throws APIException
+	 */
+	private void fetch(APISessionRecycler recycler, String configPath, String memberID, String memberRev, File targetFile) throws APIException
+	{
+		long start = System.currentTimeMillis();
+		IntegrityCMMember.checkout(recycler.getSession(), configPath, memberID, memberRev, targetFile, restoreTimestamp, lineTerminator);
+		recycler.commandCompleted(start);
+	}
+	
+	/**
+	 * Synchronizes a single member of the project with the workspace
+	 * @param batch Checkout batch the member is fetched through
+	 * @param workspace Checkout directory
+	 * @param memberInfo Member information from the project's member list
+	 * @return false if the workspace could not be updated
+	 * @throws APIException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private boolean synchronizeMember(CheckoutBatch batch, FilePath workspace, Hashtable<CM_PROJECT, Object> memberInfo) 
+										throws APIException, IOException, InterruptedException
+	{
+		short deltaFlag = (null == memberInfo.get(CM_PROJECT.DELTA) ? -1 : Short.valueOf(memberInfo.get(CM_PROJECT.DELTA).toString()));
+		String relativeFile = memberInfo.get(CM_PROJECT.RELATIVE_FILE).toString();
+		File targetFile = new File(workspace + relativeFile);
+		String checksum = (null == memberInfo.get(CM_PROJECT.CHECKSUM) ? "" : memberInfo.get(CM_PROJECT.CHECKSUM).toString());
+		statistics.memberProcessed();
+		if( null != scrubber && deltaFlag != 3 )
+		{
+			scrubber.addFile(relativeFile);
+		}
+		if( IntegrityMemberStream.isManifestOnly(memberInfo) )
+		{
+			// The master sends the details needed to restore a changed file in a second pass
+			if( ! cleanCopy && fetchChangedWorkspaceFiles && checksum.length() > 0 )
+			{
+				batch.verify(null, null, null, checksum, relativeFile, targetFile);
+			}
+			return true;
+		}
+
+		String memberName = memberInfo.get(CM_PROJECT.NAME).toString();
+		String memberID = memberInfo.get(CM_PROJECT.MEMBER_ID).toString();
+		String memberRev = memberInfo.get(CM_PROJECT.REVISION).toString();
+		String configPath = memberInfo.get(CM_PROJECT.CONFIG_PATH).toString();
+		// Calculate the checksum for fetched files, so we'll know if its changed on the filesystem
+		String checksumKey = (fetchChangedWorkspaceFiles ? memberName : null);
+
+		if( cleanCopy || deltaFlag == -1 )
+		{
+			Logger.debug("Attempting to checkout file: " + targetFile.getAbsolutePath() + " at revision " + memberRev);
+			batch.add(configPath, memberID, memberRev, targetFile, checksumKey);
+		}
+		else if( deltaFlag == 0 && fetchChangedWorkspaceFiles && checksum.length() > 0 )
+		{
+			batch.verify(configPath, memberID, memberRev, checksum, relativeFile, targetFile);
+		}
+		else if( deltaFlag == 1 )
+		{
+			Logger.debug("Attempting to get new file: " + targetFile.getAbsolutePath() + " at revision " + memberRev);
+			batch.add(configPath, memberID, memberRev, targetFile, checksumKey);
+			addCount.incrementAndGet();
+		}
+		else if( deltaFlag == 2 )
+		{
+			Logger.debug("Attempting to update file: " + targetFile.getAbsolutePath() + " to revision " + memberRev);
+			batch.add(configPath, memberID, memberRev, targetFile, checksumKey);
+			updateCount.incrementAndGet();
+		}
+		else if( deltaFlag == 3 )
 		{
-			File dir = new File(workspace + folders.next());
-			if( ! dir.isDirectory() )
+			Logger.debug("Attempting to drop file: " + targetFile.getAbsolutePath() + " was at revision " + memberRev);
+			dropCount.incrementAndGet();
+			stage.delete(targetFile);
+			if( null != fingerprints )
 			{
-				Logger.debug("Creating folder: " + dir.getAbsolutePath());
-				dir.mkdirs();
+				fingerprints.remove(targetFile);
 			}
 		}
+
+		return true;
 	}
-	
+
 	/**
-	 * Returns all the changes to the checksums that were performed
-	 * @return
+	 * Synchronizes the members on a pool of worker threads, each with its own API Session
+	 * The first worker re-uses the task's API Session; all workers stop as soon as one of them fails
+	 * @param workspace Checkout directory
+	 * @param recycler Session recycler providing the task's API Session
+	 * @param members Members to be synchronized
+	 * @return false if the workspace could not be updated
+	 * @throws APIException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private boolean checkoutParallel(final FilePath workspace, final APISessionRecycler recycler, final IntegrityMemberStream.Source members) 
+										throws APIException, IOException, InterruptedException
+	{
+		final AtomicBoolean aborted = new AtomicBoolean(false);
+		final AtomicInteger recycleCount = new AtomicInteger(0);
+		final AtomicInteger stallCount = new AtomicInteger(0);
+		final String threadName = "Integrity Checkout Worker (" + workspace.getName() + ") ";
+		int workers = Math.min(checkoutThreadPoolSize, members.size());
+		listener.getLogger().println("Synchronizing workspace using " + workers + " parallel API Sessions...");
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers, new ThreadFactory()
+		{
+			private int count = 0;
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, threadName + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(pool);
+
+		for( int i = 0; i < workers; i++ )
+		{
+			final boolean ownSession = (i > 0);
+			completionService.submit(new Callable<Boolean>()
+			{
+				public Boolean call() throws Exception
+				{
+					APISessionRecycler workerRecycler = recycler;
+					if( ownSession )
+					{
+						APISession api = createAPISession();
+						if( null == api )
+						{
+							listener.getLogger().println("Failed to establish an API connection to the Integrity Server!");
+							return false;
+						}
+						workerRecycler = new APISessionRecycler(IntegrityCheckoutTask.this, api, recycleThreshold);
+					}
+
+					try
+					{
+						CheckoutBatch batch = new CheckoutBatch(workerRecycler);
+						Hashtable<CM_PROJECT, Object> memberInfo;
+						while( ! aborted.get() && null != (memberInfo = members.next()) )
+						{
+							if( ! synchronizeMember(batch, workspace, memberInfo) )
+							{
+								return false;
+							}
+						}
+						if( ! aborted.get() )
+						{
+							batch.flush();
+						}
+						return true;
+					}
+					finally
+					{
+						if( ownSession )
+						{
+							workerRecycler.close();
+							recycleCount.addAndGet(workerRecycler.getRecycleCount());
+							stallCount.addAndGet(workerRecycler.getStallCount());
+						}
+					}
+				}
+			});
+		}
+
+		try
+		{
+			// Wait for the workers in order of completion, so the first failure stops the others right away
+			for( int i = 0; i < workers; i++ )
+			{
+				try
+				{
+					if( ! completionService.take().get() )
+					{
+						return false;
+					}
+				}
+				catch(ExecutionException eex)
+				{
+					Throwable cause = eex.getCause();
+					if( cause instanceof APIException ){ throw (APIException)cause; }
+					if( cause instanceof IOException ){ throw (IOException)cause; }
+					if( cause instanceof InterruptedException ){ throw (InterruptedException)cause; }
+					if( cause instanceof RuntimeException ){ throw (RuntimeException)cause; }
+					throw new IOException("Checkout worker failed: " + cause);
+				}
+			}
+		}
+		finally
+		{
+			// Stop handing out members and wait for the workers, so nothing writes to the workspace after we return
+			aborted.set(true);
+			pool.shutdownNow();
+			pool.awaitTermination(60, TimeUnit.SECONDS);
+			if( recycleCount.get() > 0 )
+			{
+				listener.getLogger().println("The worker API Sessions were recycled " + recycleCount.get() + " time(s) to release file handles on the server" +
+												(stallCount.get() > 0 ? " (" + stallCount.get() + " recycle(s) waited on the standby session)" : "") + "!");
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Collects the members to be fetched, so members of the same project/subproject at the same revision
+	 * are checked out with a single si projectco.  Members the batched command failed for are fetched
+	 * individually.  With a batch size of 0 or 1 every member is fetched right away.
+	 */
+	private class CheckoutBatch
+	{
+		private final APISessionRecycler recycler;
+		// Pending members keyed by project/subproject and revision
+		private final Map<String, List<String[]>> groups;
+		private final Map<String, List<File>> groupFiles;
+		// Unchanged members whose workspace file is being hashed
+		private final List<String[]> verifyMembers;
+		private final List<File> verifyFiles;
+		private final List<Future<String>> verifyChecksums;
+
+		private CheckoutBatch(APISessionRecycler recycler)
+		{
+			this.recycler = recycler;
+			this.groups = new LinkedHashMap<String, List<String[]>>();
+			this.groupFiles = new HashMap<String, List<File>>();
+			this.verifyMembers = new ArrayList<String[]>();
+			this.verifyFiles = new ArrayList<File>();
+			this.verifyChecksums = new ArrayList<Future<String>>();
+		}
+
+		/**
+		 * Hashes the workspace file of an unchanged member in the background, restoring it later if it was changed
+		 * @param configPath Full server side path for this Integrity member's project/subproject or null for a manifest entry
+		 * @param memberID Full server side path for this Integrity member or null for a manifest entry
+		 * @param memberRev Member revision string for this Integrity member or null for a manifest entry
+		 * @param checksum Checksum of the member revision
+		 * @param relativeFile Path of the workspace file relative to the checkout directory
+		 * @param targetFile File object representing the target location for this file
+		 * @throws APIException
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		private void verify(String configPath, String memberID, String memberRev, String checksum, String relativeFile, final File targetFile) 
+								throws APIException, IOException, InterruptedException
+		{
+			verifyMembers.add(new String[] {configPath, memberID, memberRev, checksum, relativeFile});
+			verifyFiles.add(targetFile);
+			verifyChecksums.add(checksumEngine.submit(new Callable<String>()
+			{
+				public String call() throws IOException
+				{
+					return getWorkspaceChecksum(targetFile);
+				}
+			}));
+			if( verifyChecksums.size() >= MAX_PENDING_VERIFICATIONS )
+			{
+				restoreChanged();
+			}
+		}
+
+		/**
+		 * Waits for the pending checksums and restores the workspace files that were changed
+		 */
+		private void restoreChanged() throws APIException, IOException, InterruptedException
+		{
+			for( int i = 0; i < verifyMembers.size(); i++ )
+			{
+				String[] member = verifyMembers.get(i);
+				File targetFile = verifyFiles.get(i);
+				if( ! member[3].equals(IntegrityChecksumEngine.get(verifyChecksums.get(i))) )
+				{
+					if( null == member[1] )
+					{
+						Logger.debug("Workspace file " + targetFile.getAbsolutePath() + " was changed and needs to be restored");
+						changedFiles.add(member[4]);
+					}
+					else
+					{
+						Logger.debug("Attempting to restore changed workspace file: " + targetFile.getAbsolutePath() + " to revision " + member[2]);
+						// The journal lists the file as fetched, but its content no longer matches
+						add(member[0], member[1], member[2], targetFile, null, false);
+						fetchCount.incrementAndGet();
+					}
+				}
+			}
+			verifyMembers.clear();
+			verifyFiles.clear();
+			verifyChecksums.clear();
+		}
+
+		/**
+		 * Adds a member to the batch, checking out its group once it is full
+		 * @param configPath Full server side path for this Integrity member's project/subproject
+		 * @param memberID Full server side path for this Integrity member
+		 * @param memberRev Member revision string for this Integrity member
+		 * @param targetFile File object representing the target location for this file
+		 * @param checksumKey Member name the checksum is recorded for or null if no checksum is needed
+		 * @throws APIException
+		 * @throws IOException
+		 */
+		private void add(String configPath, String memberID, String memberRev, File targetFile, String checksumKey) throws APIException, IOException
+		{
+			add(configPath, memberID, memberRev, targetFile, checksumKey, true);
+		}
+
+		/**
+		 * Adds a member to the batch, checking out its group once it is full
+		 * @param resumable Toggles whether a member already fetched by a previous attempt is skipped
+		 */
+		private void add(String configPath, String memberID, String memberRev, File targetFile, String checksumKey, boolean resumable) throws APIException, IOException
+		{
+			// Pending deletes must not hit the file, even if it is kept from a previous attempt
+			stage.ensureParent(targetFile);
+			// Skip members already fetched by a previous attempt
+			if( resumable && journal.isCompleted(memberID, memberRev) && targetFile.isFile() )
+			{
+				resumedCount.incrementAndGet();
+				recordChecksum(checksumKey, targetFile, null);
+				return;
+			}
+
+			long start = System.currentTimeMillis();
+			String checksum = fetchFromCache(memberID, memberRev, targetFile);
+			if( null != checksum )
+			{
+				completed(memberID, memberRev, targetFile, checksumKey, System.currentTimeMillis() - start, checksum);
+				return;
+			}
+
+			// Local cache misses are batched before asking the master or the server
+			if( checkoutBatchSize <= 1 )
+			{
+				List<String[]> group = new ArrayList<String[]>(1);
+				group.add(new String[] {memberID, checksumKey});
+				List<File> targetFiles = new ArrayList<File>(1);
+				targetFiles.add(targetFile);
+				checkout(configPath, memberRev, group, targetFiles);
+				return;
+			}
+
+			String key = configPath + '\n' + memberRev;
+			List<String[]> group = groups.get(key);
+			if( null == group )
+			{
+				group = new ArrayList<String[]>();
+				groups.put(key, group);
+				groupFiles.put(key, new ArrayList<File>());
+			}
+			group.add(new String[] {memberID, checksumKey});
+			groupFiles.get(key).add(targetFile);
+			if( group.size() >= checkoutBatchSize )
+			{
+				checkout(configPath, memberRev, groups.remove(key), groupFiles.remove(key));
+			}
+		}
+
+		/**
+		 * Checks out all pending members
+		 * @throws APIException
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		private void flush() throws APIException, IOException, InterruptedException
+		{
+			restoreChanged();
+			for( Iterator<String> it = groups.keySet().iterator(); it.hasNext(); )
+			{
+				String key = it.next();
+				int separator = key.lastIndexOf('\n');
+				checkout(key.substring(0, separator), key.substring(separator + 1), groups.get(key), groupFiles.get(key));
+			}
+			groups.clear();
+			groupFiles.clear();
+		}
+
+		/**
+		 * Fills a group of members from the master's revision cache, checks out the rest with a single command
+		 * and falls back to individual checkouts for the ones that failed
+		 */
+		private void checkout(String configPath, String memberRev, List<String[]> group, List<File> targetFiles) throws APIException, IOException
+		{
+			long start = System.currentTimeMillis();
+			String[] checksums = fetchFromMaster(configPath, getMemberIDs(group), memberRev, targetFiles);
+			if( null != checksums )
+			{
+				long time = (System.currentTimeMillis() - start) / group.size();
+				List<String[]> misses = new ArrayList<String[]>();
+				List<File> missFiles = new ArrayList<File>();
+				for( int i = 0; i < group.size(); i++ )
+				{
+					String[] member = group.get(i);
+					if( null == checksums[i] )
+					{
+						misses.add(member);
+						missFiles.add(targetFiles.get(i));
+					}
+					else
+					{
+						addToCache(member[0], memberRev, targetFiles.get(i));
+						completed(member[0], memberRev, targetFiles.get(i), member[1], time, checksums[i]);
+					}
+				}
+				group = misses;
+				targetFiles = missFiles;
+			}
+
+			if( group.isEmpty() )
+			{
+				return;
+			}
+			else if( group.size() == 1 )
+			{
+				fetchMember(configPath, group.get(0)[0], memberRev, targetFiles.get(0), group.get(0)[1]);
+				return;
+			}
+
+			start = System.currentTimeMillis();
+			Set<String> failed = IntegrityCMMember.checkout(recycler.getSession(), configPath, getMemberIDs(group), memberRev,
+																targetFiles, restoreTimestamp, lineTerminator);
+			recycler.commandCompleted(start, group.size());
+			// The members of a batch share the time spent on the command
+			long time = (System.currentTimeMillis() - start) / group.size();
+			if( failed.size() > 0 )
+			{
+				Logger.debug("Retrying " + failed.size() + " of " + group.size() + " members individually after a batched checkout from " + configPath);
+			}
+
+			for( int i = 0; i < group.size(); i++ )
+			{
+				String[] member = group.get(i);
+				if( failed.contains(member[0]) )
+				{
+					fetchMember(configPath, member[0], memberRev, targetFiles.get(i), member[1]);
+				}
+				else
+				{
+					String checksum = addToCache(member[0], memberRev, targetFiles.get(i));
+					completed(member[0], memberRev, targetFiles.get(i), member[1], time, checksum);
+				}
+			}
+		}
+
+		/**
+		 * Returns the member IDs of a group of members
+		 */
+		private List<String> getMemberIDs(List<String[]> group)
+		{
+			List<String> memberIDs = new ArrayList<String>(group.size());
+			for( String[] member : group )
+			{
+				memberIDs.add(member[0]);
+			}
+			return memberIDs;
+		}
+
+		/**
+		 * Checks out a single member and records its checksum
+		 */
+		private void fetchMember(String configPath, String memberID, String memberRev, File targetFile, String checksumKey) throws APIException, IOException
+		{
+			long start = System.currentTimeMillis();
+			fetch(recycler, configPath, memberID, memberRev, targetFile);
+			String checksum = addToCache(memberID, memberRev, targetFile);
+			completed(memberID, memberRev, targetFile, checksumKey, System.currentTimeMillis() - start, checksum);
+		}
+
+		/**
+		 * Journals a member that was fetched and records its checksum and timing
+		 * @param checksum Checksum computed while the file was written or null if it isn't known
+		 */
+		private void completed(String memberID, String memberRev, File targetFile, String checksumKey, long time, String checksum) throws IOException
+		{
+			journal.completed(memberID, memberRev);
+			statistics.memberFetched(memberID, targetFile.length(), time);
+			recordChecksum(checksumKey, targetFile, checksum);
+		}
+
+		/**
+		 * Records the checksum of a workspace file, if requested
+		 * @param checksum Checksum computed while the file was written or null if the file needs to be hashed
+		 */
+		private void recordChecksum(final String checksumKey, final File targetFile, String checksum)
+		{
+			if( null != checksumKey && null != checksum )
+			{
+				checksumHash.put(checksumKey, checksum);
+				fingerprints.record(targetFile, checksum);
+			}
+			else if( null != checksumKey )
+			{
+				// Hashed in the background, the engine is drained before the checkout completes
+				checksumEngine.submit(new Callable<String>()
+				{
+					public String call() throws IOException
+					{
+						String checksum = IntegrityCMMember.getMD5Checksum(targetFile);
+						checksumHash.put(checksumKey, checksum);
+						fingerprints.record(targetFile, checksum);
+						return checksum;
+					}
+				});
+			}
+			else if( null != fingerprints )
+			{
+				fingerprints.remove(targetFile);
+			}
+		}
+	}
+
+	/**
+	 * Starts a thread reporting the throughput of the checkout to the build log
+	 * @param total Total number of members to be synchronized
+	 * @return The reporter thread, to be interrupted once the checkout is done
 	 */
-	public Hashtable<String, String> getChecksumUpdates()
+	private Thread startProgressReporter(final int total)
 	{
-		return checksumHash;
+		Thread reporter = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					while( true )
+					{
+						Thread.sleep(PROGRESS_INTERVAL);
+						listener.getLogger().println(statistics.getProgress(total));
+					}
+				}
+				catch(InterruptedException iex)
+				{
+					// The checkout is done
+				}
+			}
+		}, "Integrity Checkout Progress");
+		reporter.setDaemon(true);
+		reporter.start();
+		return reporter;
 	}
 	
 	/**
 	 * This task wraps around the code necessary to checkout Integrity CM Members on remote machines
 	 */
-	public Boolean invoke(File workspaceFile, VirtualChannel channel) throws IOException 
+	public Result invoke(File workspaceFile, VirtualChannel channel) throws IOException 
+	{
+		statistics = new IntegrityCheckoutStatistics();
+		boolean synchronizedWorkspace = synchronizeWorkspace(workspaceFile, channel);
+		// The checksums, changed files and statistics are handed back to the master along with the outcome
+		return new Result(synchronizedWorkspace, checksumHash, new ArrayList<String>(changedFiles), statistics, commandMetrics);
+	}
+	
+	/**
+	 * Synchronizes the workspace with the member list
+	 * @param workspaceFile Workspace of the build
+	 * @param channel Channel to the master
+	 * @return false if the workspace could not be updated
+	 * @throws IOException
+	 */
+	private boolean synchronizeWorkspace(File workspaceFile, VirtualChannel channel) throws IOException 
     {
+		long startTime = System.currentTimeMillis();
 		// Figure out where we should be checking out this project
 		File checkOutDir = (null != alternateWorkspaceDir && alternateWorkspaceDir.length() > 0) ? new File(alternateWorkspaceDir) : workspaceFile;
 		// Convert the file object to a hudson FilePath (helps us with workspace.deleteContents())
 		FilePath workspace = new FilePath(checkOutDir.isAbsolute() ? checkOutDir : 
 						new File(workspaceFile.getAbsolutePath() + IntegritySCM.FS + checkOutDir.getPath()));
 		listener.getLogger().println("Checkout directory is " + workspace);
+		admissionGroup = "checkout:" + workspace.getRemote();
+		masterChannel = channel;
+		if( memberCacheDir.length() > 0 )
+		{
+			File cacheDir = new File(memberCacheDir);
+			cacheDir = (cacheDir.isAbsolute() ? cacheDir : new File(workspaceFile.getAbsoluteFile().getParentFile(), memberCacheDir));
+			memberCache = IntegrityMemberCache.getCache(cacheDir, memberCacheSize);
+			listener.getLogger().println("Using member cache " + memberCache.getCacheDir());
+		}
 		// Create a fresh API Session as we may/will be executing from another server
 		APISession api = createAPISession();
 		// Ensure we've successfully created an API Session
@@ -175,109 +983,130 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
 		}
 		
 		// If we got here, then APISession was created successfully!
+		// Sessions are recycled periodically to release the file handles opened on the server
+		APISessionRecycler recycler = new APISessionRecycler(this, api, recycleThreshold);
+		boolean completed = false;
+		IntegrityMemberStream.Source members = null;
+		Thread progressReporter = null;
+		long fetchStartTime = 0;
+		long cleanupStartTime = 0;
 		try
 		{
-			// Keep count of the open file handles generated on the server
-			int openFileHandles = 0;
-			if( cleanCopy )
+			// Members are decoded from the pipe as the checkout proceeds
+			members = (null != memberPipe ? IntegrityMemberStream.open(memberPipe.getIn()) : IntegrityMemberStream.open(projectMembersList));
+			progressReporter = startProgressReporter(members.size());
+			journal = new IntegrityCheckoutJournal(new File(workspace.getRemote()), lineTerminator + '\t' + restoreTimestamp, cleanCopy);
+			if( journal.getResumableCount() > 0 )
+			{
+				// The previous attempt was clean as well and already wiped the workspace, so it's only topped up
+				listener.getLogger().println("Resuming previous checkout attempt which completed " + journal.getResumableCount() + " files...");
+			}
+			else if( cleanCopy )
 			{ 
 				listener.getLogger().println("A clean copy is requested; deleting contents of " + workspace); 
-				Logger.debug("Deleting contents of workspace " + workspace); 
-				workspace.deleteContents();
+				if( fastWipe && IntegrityWorkspaceWiper.wipe(new File(workspace.getRemote())) )
+				{
+					listener.getLogger().println("Previous contents of " + workspace + " were moved aside and are deleted in the background");
+				}
+				else
+				{
+					Logger.debug("Deleting contents of workspace " + workspace); 
+					workspace.deleteContents();
+				}
 				listener.getLogger().println("Populating clean workspace...");
 			}
+			if( fetchChangedWorkspaceFiles )
+			{
+				// Nothing is left of the previous checkout's files after a clean copy
+				fingerprints = new IntegrityFingerprintIndex(new File(workspace.getRemote()), fullVerify, ! cleanCopy || journal.getResumableCount() > 0);
+				checksumEngine = new IntegrityChecksumEngine("Integrity Checksum Engine (" + workspace.getName() + ") ");
+			}
 				
-			// Create an empty folder structure first
-			createFolderStructure(workspace);
+			if( scrubWorkspace && ! cleanCopy )
+			{
+				// The members are added to the scrubber as they are synchronized
+				scrubber = new IntegrityWorkspaceScrubber(new File(workspace.getRemote()));
+				for( String folder : dirList )
+				{
+					scrubber.addDirectory(folder);
+				}
+			}
+				
+			// Create an empty folder structure while the members are fetched
+			fetchStartTime = System.currentTimeMillis();
+			stage = new IntegrityWorkspaceStage("Integrity Workspace Stage (" + workspace.getName() + ") ", new File(workspace.getRemote()));
+			stage.createDirectories(new File(workspace.getRemote()), dirList);
 			
 			// Perform a synchronize of each file in the member list... 
-			for( Iterator<Hashtable<CM_PROJECT, Object>> it = projectMembersList.iterator(); it.hasNext(); )
-			{
-				openFileHandles++;
-				Hashtable<CM_PROJECT, Object> memberInfo = it.next();
-				short deltaFlag = (null == memberInfo.get(CM_PROJECT.DELTA) ? -1 : Short.valueOf(memberInfo.get(CM_PROJECT.DELTA).toString()));
-				File targetFile = new File(workspace + memberInfo.get(CM_PROJECT.RELATIVE_FILE).toString());
-				String memberName = memberInfo.get(CM_PROJECT.NAME).toString();
-				String memberID = memberInfo.get(CM_PROJECT.MEMBER_ID).toString();
-				String memberRev = memberInfo.get(CM_PROJECT.REVISION).toString();
-				String configPath = memberInfo.get(CM_PROJECT.CONFIG_PATH).toString();
-				String checksum = (null == memberInfo.get(CM_PROJECT.CHECKSUM) ? "" : memberInfo.get(CM_PROJECT.CHECKSUM).toString());
-			
-				if( cleanCopy || deltaFlag == -1 )
+			if( checkoutThreadPoolSize > 1 && members.size() > 1 )
+			{
+				if( ! checkoutParallel(workspace, recycler, members) )
 				{
-					Logger.debug("Attempting to checkout file: " + targetFile.getAbsolutePath() + " at revision " + memberRev);
-					IntegrityCMMember.checkout(api, configPath, memberID, memberRev, targetFile, restoreTimestamp, lineTerminator);
-					// Calculate the checksum for this file, so we'll know if its changed on the filesystem
-					if( fetchChangedWorkspaceFiles )
-					{
-						checksumHash.put(memberName, IntegrityCMMember.getMD5Checksum(targetFile));
-					}					
+					return false;
 				}
-				else if( deltaFlag == 0 && fetchChangedWorkspaceFiles && checksum.length() > 0 )
+			}
+			else
+			{
+				CheckoutBatch batch = new CheckoutBatch(recycler);
+				Hashtable<CM_PROJECT, Object> memberInfo;
+				while( null != (memberInfo = members.next()) )
 				{
-					if( ! checksum.equals(IntegrityCMMember.getMD5Checksum(targetFile)) )
+					if( ! synchronizeMember(batch, workspace, memberInfo) )
 					{
-						Logger.debug("Attempting to restore changed workspace file: " + targetFile.getAbsolutePath() + " to revision " + memberRev);
-						IntegrityCMMember.checkout(api, configPath, memberID, memberRev, targetFile, restoreTimestamp, lineTerminator);
-						fetchCount++;
+						return false;
 					}
 				}
-				else if( deltaFlag == 1 )
-				{
-					Logger.debug("Attempting to get new file: " + targetFile.getAbsolutePath() + " at revision " + memberRev);
-					IntegrityCMMember.checkout(api, configPath, memberID, memberRev, targetFile, restoreTimestamp, lineTerminator);
-					addCount++;
-					// Calculate the checksum for this file, so we'll know if its changed on the filesystem
-					if( fetchChangedWorkspaceFiles )
-					{
-						checksumHash.put(memberName, IntegrityCMMember.getMD5Checksum(targetFile));
-					}										
-				}
-				else if( deltaFlag == 2 )
+				batch.flush();
+			}
+			
+			// Wait for the checksums, folders and deletes to be applied
+			cleanupStartTime = System.currentTimeMillis();
+			if( null != checksumEngine )
+			{
+				checksumEngine.await();
+			}
+			List<File> failedDeletes = stage.finish();
+			if( failedDeletes.size() > 0 )
+			{
+				for( File targetFile : failedDeletes )
 				{
-					Logger.debug("Attempting to update file: " + targetFile.getAbsolutePath() + " to revision " + memberRev);
-					IntegrityCMMember.checkout(api, configPath, memberID, memberRev, targetFile, restoreTimestamp, lineTerminator);
-					updateCount++;
-					// Calculate the checksum for this file, so we'll know if its changed on the filesystem
-					if( fetchChangedWorkspaceFiles )
-					{
-						checksumHash.put(memberName, IntegrityCMMember.getMD5Checksum(targetFile));
-					}															
+					listener.getLogger().println("Failed to clean up workspace file " + targetFile.getAbsolutePath() + "!");
 				}
-				else if( deltaFlag == 3 )					
+				return false;
+			}
+			
+			// Get rid of everything that doesn't belong to the project, i.e. the output of previous builds
+			if( null != scrubber )
+			{
+				long scrubStartTime = System.currentTimeMillis();
+				List<File> failedScrubs = scrubber.scrub("Integrity Workspace Scrubber (" + workspace.getName() + ") ");
+				listener.getLogger().println("Scrubbed workspace: deleted " + scrubber.getDeletedCount() + " untracked file(s) and folder(s) out of " + 
+												scrubber.getScannedCount() + " scanned in " + (System.currentTimeMillis() - scrubStartTime) + " ms");
+				if( failedScrubs.size() > 0 )
 				{
-					Logger.debug("Attempting to drop file: " + targetFile.getAbsolutePath() + " was at revision " + memberRev);
-					dropCount++;
-					if( targetFile.exists() && !targetFile.delete() )
+					for( File targetFile : failedScrubs )
 					{
 						listener.getLogger().println("Failed to clean up workspace file " + targetFile.getAbsolutePath() + "!");
-						return false;
 					}
-					
-				}
-					
-				// Check to see if we need to release the APISession to clear some file handles
-				if( openFileHandles % CHECKOUT_TRESHOLD == 0 )
-				{
-					api.Terminate();
-					api = createAPISession();
+					return false;
 				}
 			}
 			
 			// Lets advice the user that we've checked out all the members
 			if( cleanCopy )
 			{
-				listener.getLogger().println("Successfully checked out " + projectMembersList.size() + " files!");
+				listener.getLogger().println("Successfully checked out " + members.size() + " files!");
 			}
 			else
 			{
 				// Lets advice the user that we've performed the updates to the workspace
-				listener.getLogger().println("Successfully updated workspace with " + (addCount+updateCount) + " updates and cleaned up " +  dropCount + " files!");			
-				if( fetchChangedWorkspaceFiles && fetchCount > 0 )
+				listener.getLogger().println("Successfully updated workspace with " + (addCount.get()+updateCount.get()) + " updates and cleaned up " +  dropCount.get() + " files!");			
+				if( fetchChangedWorkspaceFiles && fetchCount.get() > 0 )
 				{
-					listener.getLogger().println("Additionally, a total of " + fetchCount + " files were restored to their original repository state!");
+					listener.getLogger().println("Additionally, a total of " + fetchCount.get() + " files were restored to their original repository state!");
 				}
 			}
+			completed = true;
 		}
 		catch( APIException aex )
 		{
@@ -302,11 +1131,148 @@ public class IntegrityCheckoutTask implements FileCallable<Boolean>
 		}
 		finally
 		{
-			// Close out the API Session created on this slave.
-			api.Terminate();
+			if( null != progressReporter )
+			{
+				progressReporter.interrupt();
+			}
+			// Close out the API Session(s) created on this slave.
+			recycler.close();
+			if( null != stage )
+			{
+				stage.abort();
+			}
+			if( null != checksumEngine )
+			{
+				checksumEngine.shutdown();
+			}
+			if( null != members )
+			{
+				members.close();
+			}
+			if( null != fingerprints )
+			{
+				try
+				{
+					fingerprints.save();
+				}
+				catch(IOException ioe)
+				{
+					Logger.warn("Failed to save fingerprint index: " + ioe.getMessage());
+				}
+				if( fingerprints.getSkippedCount() > 0 || fingerprints.getHashedCount() > 0 )
+				{
+					listener.getLogger().println("Verified " + (fingerprints.getSkippedCount() + fingerprints.getHashedCount()) + " workspace file(s), " + 
+													fingerprints.getHashedCount() + " of them had to be re-hashed");
+				}
+			}
+			if( null != journal )
+			{
+				// Keep the journal around for the next attempt if we didn't make it
+				if( completed ){ journal.delete(); }
+				else{ journal.close(); }
+			}
+			if( resumedCount.get() > 0 )
+			{
+				listener.getLogger().println(resumedCount.get() + " file(s) checked out by the previous attempt were kept");
+			}
+			if( masterCacheHits.get() > 0 )
+			{
+				listener.getLogger().println(masterCacheHits.get() + " file(s) were served by the master's revision cache");
+			}
+			if( null != memberCache )
+			{
+				listener.getLogger().println("Member cache: " + cacheHits.get() + " hit(s), " + cacheMisses.get() + " miss(es); the cache holds " +
+												memberCache.getEntryCount() + " revision(s) (" + (memberCache.getSize() / (1024 * 1024)) + " MB)");
+			}
+			if( recycler.getRecycleCount() > 0 )
+			{
+				listener.getLogger().println("The API Session was recycled " + recycler.getRecycleCount() + " time(s) to release file handles on the server" + 
+												(recycler.getStallCount() > 0 ? " (" + recycler.getStallCount() + " recycle(s) waited on the standby session)" : "") + "!");
+			}
+			
+			// Phases that weren't reached took no time
+			long endTime = System.currentTimeMillis();
+			fetchStartTime = (fetchStartTime > 0 ? fetchStartTime : endTime);
+			cleanupStartTime = (cleanupStartTime > 0 ? cleanupStartTime : endTime);
+			statistics.setPhaseTimes(fetchStartTime - startTime, cleanupStartTime - fetchStartTime, endTime - cleanupStartTime);
+			statistics.setCounts((null != members ? members.size() : 0), addCount.get(), updateCount.get(), dropCount.get(), fetchCount.get(),
+									resumedCount.get(), cacheHits.get(), cacheMisses.get(), masterCacheHits.get());
+			listener.getLogger().println(statistics.getSummary());
+			for( IntegrityCheckoutStatistics.MemberTiming slowest : statistics.getSlowestMembers() )
+			{
+				listener.getLogger().println("    " + slowest.getMemberID() + " took " + slowest.getTime() + " ms");
+			}
 		}
 		
 	    //If we got here, everything is good on the checkout...		
 		return true;
     }
+	
+	/**
+	 * Outcome of a checkout, as handed back to the master
+	 */
+	public static final class Result implements Serializable
+	{
+		private static final long serialVersionUID = 4471520839316094718L;
+		private final boolean synchronizedWorkspace;
+		private final Hashtable<String, String> checksumHash;
+		private final List<String> changedFiles;
+		private final IntegrityCheckoutStatistics statistics;
+		private final APICommandMetrics.Collector commandMetrics;
+
+		public Result(boolean synchronizedWorkspace, Hashtable<String, String> checksumHash, List<String> changedFiles,
+						IntegrityCheckoutStatistics statistics, APICommandMetrics.Collector commandMetrics)
+		{
+			this.synchronizedWorkspace = synchronizedWorkspace;
+			this.checksumHash = checksumHash;
+			this.changedFiles = changedFiles;
+			this.statistics = statistics;
+			this.commandMetrics = commandMetrics;
+		}
+
+		/**
+		 * Returns true if the workspace was successfully updated
+		 * @return
+		 */
+		public boolean isSynchronized()
+		{
+			return synchronizedWorkspace;
+		}
+
+		/**
+		 * Returns all the changes to the checksums that were performed
+		 * @return
+		 */
+		public Hashtable<String, String> getChecksumUpdates()
+		{
+			return checksumHash;
+		}
+
+		/**
+		 * Returns the relative paths of the manifest entries whose workspace file needs to be restored
+		 * @return
+		 */
+		public List<String> getChangedFiles()
+		{
+			return changedFiles;
+		}
+
+		/**
+		 * Returns the timings and counts of the checkout
+		 * @return
+		 */
+		public IntegrityCheckoutStatistics getStatistics()
+		{
+			return statistics;
+		}
+
+		/**
+		 * Returns the metrics of the commands executed on a slave or null if the checkout ran on the master
+		 * @return
+		 */
+		public APICommandMetrics.Collector getCommandMetrics()
+		{
+			return commandMetrics;
+		}
+	}
 }
@@ -153,7 +153,7 @@ public class IntegrityCheckpointAction extends Notifier
         		}
         		finally
         		{
-        			api.Terminate();
+        			IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.returnAPISession(api);
         		}
         	}
         	catch (Throwable e) 
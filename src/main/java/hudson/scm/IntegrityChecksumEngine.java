@@ -0,0 +1,230 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Hashes workspace files on one thread per core, so verifying a large workspace is limited by
+ * the disk rather than by the checkout thread.  Large files are read through a file channel into
+ * a direct buffer that each thread reuses, instead of being copied through a stream buffer.  Files
+ * are not memory-mapped, as a mapping can't be released explicitly and keeps the file locked on
+ * Windows until it is garbage collected.
+ */
+public class IntegrityChecksumEngine
+{
+	// Files at least this large (in bytes) are read through a file channel
+	private static final long CHANNEL_THRESHOLD = 1024 * 1024;
+	// Size (in bytes) of the direct buffer each thread reads large files into
+	private static final int CHANNEL_BUFFER_SIZE = 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Direct buffers are expensive to allocate and only freed by the garbage collector, so they're reused
+	private static final ThreadLocal<ByteBuffer> channelBuffer = new ThreadLocal<ByteBuffer>()
+	{
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+		}
+	};
+
+	private final ExecutorService pool;
+	private final List<Future<?>> pending;
+
+	/**
+	 * Creates an engine with one thread per available processor
+	 * @param name Name of the engine's threads
+	 */
+	public IntegrityChecksumEngine(final String name)
+	{
+		this.pending = Collections.synchronizedList(new ArrayList<Future<?>>());
+		this.pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+		{
+			private int count = 0;
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the MD5 checksum of a file
+	 * @param file File to be hashed
+	 * @return The checksum in hex or an empty string if the file doesn't exist
+	 * @throws IOException
+	 */
+	public static String md5(File file) throws IOException
+	{
+		MessageDigest digest = createDigest();
+		try
+		{
+			if( file.length() >= CHANNEL_THRESHOLD )
+			{
+				updateChannel(digest, file);
+			}
+			else
+			{
+				updateStream(digest, file);
+			}
+		}
+		catch(FileNotFoundException fnfe)
+		{
+			return "";
+		}
+		return toHex(digest);
+	}
+
+	/**
+	 * Returns a digest for computing an MD5 checksum as content passes through, i.e. with a DigestInputStream
+	 * @return
+	 * @throws IOException if MD5 is not supported
+	 */
+	public static MessageDigest createDigest() throws IOException
+	{
+		try
+		{
+			return MessageDigest.getInstance("MD5");
+		}
+		catch(NoSuchAlgorithmException nsae)
+		{
+			throw new IOException("MD5 is not supported: " + nsae.getMessage());
+		}
+	}
+
+	/**
+	 * Completes a digest and returns the checksum in hex, as returned by md5()
+	 * @param digest Digest returned by createDigest()
+	 * @return
+	 */
+	public static String toHex(MessageDigest digest)
+	{
+		return new String(Hex.encodeHex(digest.digest()));
+	}
+
+	/**
+	 * Hashes a small file through a stream buffer
+	 */
+	private static void updateStream(MessageDigest digest, File file) throws IOException
+	{
+		InputStream is = new FileInputStream(file);
+		try
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while( (read = is.read(buffer)) != -1 )
+			{
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Hashes a large file through the thread's direct buffer
+	 */
+	private static void updateChannel(MessageDigest digest, File file) throws IOException
+	{
+		FileInputStream fis = new FileInputStream(file);
+		try
+		{
+			FileChannel channel = fis.getChannel();
+			ByteBuffer buffer = channelBuffer.get();
+			buffer.clear();
+			while( channel.read(buffer) != -1 )
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(fis);
+		}
+	}
+
+	/**
+	 * Runs a task on the engine's threads
+	 * @param task Task hashing one or more files
+	 * @return
+	 */
+	public <T> Future<T> submit(Callable<T> task)
+	{
+		Future<T> future = pool.submit(task);
+		pending.add(future);
+		return future;
+	}
+
+	/**
+	 * Returns the result of a task, rethrowing its failure
+	 * @param future Future returned by submit()
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static <T> T get(Future<T> future) throws IOException, InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch(ExecutionException eex)
+		{
+			if( eex.getCause() instanceof IOException )
+			{
+				throw (IOException)eex.getCause();
+			}
+			IOException ioe = new IOException("Failed to compute checksum: " + eex.getCause());
+			ioe.initCause(eex.getCause());
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Waits for all the tasks submitted so far
+	 * @throws IOException if one of the tasks failed
+	 * @throws InterruptedException
+	 */
+	public void await() throws IOException, InterruptedException
+	{
+		synchronized(pending)
+		{
+			for( Future<?> future : pending )
+			{
+				get(future);
+			}
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Stops the engine's threads
+	 */
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,119 @@
+package hudson.scm;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.ManagementLink;
+
+/**
+ * Adds an 'Integrity Connections' page to Manage Hudson showing the state of the API Session
+ * pool, the admission control queues and the circuit breakers for each Integrity Server, along
+ * with the latency of each Integrity command.  The command metrics are also available as JSON
+ * from the 'metrics' URL below this page.
+ */
+@Extension
+public class IntegrityConnectionsLink extends ManagementLink
+{
+	@Override
+	public String getIconFileName()
+	{
+		return "network.png";
+	}
+
+	@Override
+	public String getUrlName()
+	{
+		return "integrity-connections";
+	}
+
+	@Override
+	public String getDisplayName()
+	{
+		return "Integrity Connections";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Monitor the API Sessions and command queues for the Integrity Servers used by this Hudson master";
+	}
+
+	/**
+	 * Returns the API Session pool shared by all jobs
+	 * @return
+	 */
+	public APISessionPool getSessionPool()
+	{
+		return IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.getSessionPool();
+	}
+
+	/**
+	 * Returns the admission control statistics for each Integrity Server
+	 * @return
+	 */
+	public List<APIAdmissionController.ServerLimiter> getServers()
+	{
+		APIAdmissionController controller = APIAdmissionController.getActiveController();
+		if( null == controller )
+		{
+			return Collections.emptyList();
+		}
+		return controller.getServers();
+	}
+
+	/**
+	 * Returns the circuit breakers for each Integrity Server
+	 * @return
+	 */
+	public List<APICircuitBreaker> getCircuitBreakers()
+	{
+		return APICircuitBreaker.getBreakers();
+	}
+
+	/**
+	 * Returns the execution metrics for each Integrity command
+	 * @return
+	 */
+	public List<APICommandMetrics> getCommandMetrics()
+	{
+		return APICommandMetrics.getAll();
+	}
+
+	/**
+	 * Serves the command metrics as JSON, i.e. for scraping by a monitoring system
+	 * @param req Stapler request
+	 * @param rsp Stapler response
+	 * @throws IOException
+	 */
+	public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException
+	{
+		Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+		JSONArray commands = new JSONArray();
+		for( APICommandMetrics metrics : APICommandMetrics.getAll() )
+		{
+			JSONObject command = new JSONObject();
+			command.element("command", metrics.getCommand());
+			command.element("count", metrics.getCount());
+			command.element("errors", metrics.getErrorCount());
+			command.element("average", metrics.getAverage());
+			command.element("max", metrics.getMax());
+			command.element("p50", metrics.getP50());
+			command.element("p95", metrics.getP95());
+			command.element("p99", metrics.getP99());
+			commands.element(command);
+		}
+		JSONObject result = new JSONObject();
+		result.element("commands", commands);
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.getWriter().print(result.toString());
+	}
+}
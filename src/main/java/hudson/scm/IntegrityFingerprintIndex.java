@@ -0,0 +1,255 @@
+package hudson.scm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Remembers the size, modification time and checksum of the workspace files, so verifying the
+ * unchanged members of an incremental checkout only re-hashes the files whose size or timestamp
+ * changed since they were last hashed.  The index lives next to the checkout directory
+ * (i.e. workspace@integrity/fingerprints).  Fingerprints carry over from one checkout to the next
+ * until the file is replaced or dropped, so a checkout touching only a few files (i.e. restoring
+ * the changed workspace files) keeps the fingerprints of all the others.
+ */
+public class IntegrityFingerprintIndex
+{
+	private static final String INDEX_FILE = "fingerprints";
+	private static final String ENCODING = "UTF-8";
+	// Files modified this close (in milliseconds) to being hashed may change again within the timestamp resolution
+	private static final long RACY_INTERVAL = 2000;
+
+	private final File indexFile;
+	private final String checkOutPath;
+	private final boolean fullVerify;
+	// Fingerprints loaded from the previous checkout
+	private final Map<String, Fingerprint> previous;
+	// Fingerprints of the files used by this checkout
+	private final Map<String, Fingerprint> current;
+	private int hashedCount;
+	private int skippedCount;
+
+	/**
+	 * Opens the index for a checkout directory
+	 * @param checkOutDir Checkout directory
+	 * @param fullVerify Toggles whether every file is re-hashed regardless of the index
+	 * @param load Toggles whether the fingerprints of the previous checkout are loaded
+	 * @throws IOException
+	 */
+	public IntegrityFingerprintIndex(File checkOutDir, boolean fullVerify, boolean load) throws IOException
+	{
+		this.checkOutPath = checkOutDir.getAbsolutePath();
+		this.indexFile = new File(new File(checkOutPath + "@integrity"), INDEX_FILE);
+		this.fullVerify = fullVerify;
+		this.previous = new ConcurrentHashMap<String, Fingerprint>();
+		this.current = new ConcurrentHashMap<String, Fingerprint>();
+		// Even a full verification loads the index, so the fingerprints of files it doesn't look at are kept
+		if( load && indexFile.isFile() )
+		{
+			load();
+		}
+	}
+
+	/**
+	 * Reads the fingerprints of the previous checkout
+	 */
+	private void load() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), ENCODING));
+		try
+		{
+			if( ! checkOutPath.equals(reader.readLine()) )
+			{
+				Logger.debug("Ignoring fingerprint index " + indexFile.getAbsolutePath() + " written for another checkout directory");
+				return;
+			}
+			String line;
+			while( null != (line = reader.readLine()) )
+			{
+				String[] fields = line.split("\t", 4);
+				if( fields.length == 4 )
+				{
+					previous.put(fields[3], new Fingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+				}
+			}
+			Logger.debug("Fingerprint index " + indexFile.getAbsolutePath() + " lists " + previous.size() + " files");
+		}
+		catch(NumberFormatException nfe)
+		{
+			Logger.warn("Ignoring damaged fingerprint index " + indexFile.getAbsolutePath());
+			previous.clear();
+		}
+		finally
+		{
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Returns the key of a workspace file
+	 */
+	private String getKey(File targetFile)
+	{
+		String path = targetFile.getAbsolutePath();
+		return (path.startsWith(checkOutPath) ? path.substring(checkOutPath.length()) : path);
+	}
+
+	/**
+	 * Returns the checksum of a workspace file, only hashing it if its size or timestamp changed
+	 * @param targetFile Workspace file
+	 * @return The MD5 checksum or an empty string if the file doesn't exist
+	 * @throws IOException
+	 */
+	public String getChecksum(File targetFile) throws IOException
+	{
+		String key = getKey(targetFile);
+		long length = targetFile.length();
+		long lastModified = targetFile.lastModified();
+		Fingerprint fingerprint = previous.get(key);
+		if( ! fullVerify && null != fingerprint && lastModified > 0 && fingerprint.matches(length, lastModified) )
+		{
+			current.put(key, fingerprint);
+			synchronized(this){ skippedCount++; }
+			return fingerprint.checksum;
+		}
+
+		String checksum = IntegrityCMMember.getMD5Checksum(targetFile);
+		synchronized(this){ hashedCount++; }
+		record(key, length, lastModified, checksum);
+		return checksum;
+	}
+
+	/**
+	 * Records the checksum of a workspace file that was just fetched
+	 * @param targetFile Workspace file
+	 * @param checksum MD5 checksum of the file
+	 */
+	public void record(File targetFile, String checksum)
+	{
+		record(getKey(targetFile), targetFile.length(), targetFile.lastModified(), checksum);
+	}
+
+	private void record(String key, long length, long lastModified, String checksum)
+	{
+		// The fingerprint of the previous checkout no longer describes the file
+		previous.remove(key);
+		// A timestamp this recent may not change if the file is modified again right away
+		if( lastModified > 0 && checksum.length() > 0 && System.currentTimeMillis() - lastModified > RACY_INTERVAL )
+		{
+			current.put(key, new Fingerprint(length, lastModified, checksum));
+		}
+		else
+		{
+			current.remove(key);
+		}
+	}
+
+	/**
+	 * Forgets a workspace file whose content was replaced without computing its checksum, or that was dropped
+	 * @param targetFile Workspace file
+	 */
+	public void remove(File targetFile)
+	{
+		String key = getKey(targetFile);
+		previous.remove(key);
+		current.remove(key);
+	}
+
+	/**
+	 * Writes the fingerprints of the files used by this checkout and those of the previous checkout that are still valid
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		indexFile.getParentFile().mkdirs();
+		File tmp = new File(indexFile.getParentFile(), INDEX_FILE + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), ENCODING));
+		try
+		{
+			writer.write(checkOutPath + '\n');
+			for( Iterator<Map.Entry<String, Fingerprint>> it = current.entrySet().iterator(); it.hasNext(); )
+			{
+				Map.Entry<String, Fingerprint> entry = it.next();
+				write(writer, entry.getKey(), entry.getValue());
+			}
+			// Files this checkout didn't look at keep their fingerprints
+			for( Iterator<Map.Entry<String, Fingerprint>> it = previous.entrySet().iterator(); it.hasNext(); )
+			{
+				Map.Entry<String, Fingerprint> entry = it.next();
+				if( ! current.containsKey(entry.getKey()) )
+				{
+					write(writer, entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(writer);
+		}
+		// Readers never see a partially written index
+		indexFile.delete();
+		if( ! tmp.renameTo(indexFile) )
+		{
+			throw new IOException("Failed to rename " + tmp.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Writes a single entry of the index
+	 */
+	private static void write(Writer writer, String key, Fingerprint fingerprint) throws IOException
+	{
+		writer.write(fingerprint.length + "\t" + fingerprint.lastModified + "\t" + fingerprint.checksum + "\t" + key + '\n');
+	}
+
+	/**
+	 * Returns the number of files hashed by this checkout
+	 * @return
+	 */
+	public synchronized int getHashedCount()
+	{
+		return hashedCount;
+	}
+
+	/**
+	 * Returns the number of files whose checksum was taken from the index
+	 * @return
+	 */
+	public synchronized int getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	/**
+	 * Size, timestamp and checksum of a workspace file
+	 */
+	private static final class Fingerprint
+	{
+		private final long length;
+		private final long lastModified;
+		private final String checksum;
+
+		private Fingerprint(long length, long lastModified, String checksum)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+		}
+
+		private boolean matches(long length, long lastModified)
+		{
+			return this.length == length && this.lastModified == lastModified;
+		}
+	}
+}
@@ -242,7 +242,8 @@ public class IntegrityItemAction extends Notifier
 	}
 	
     /**
-     * Creates an authenticated API Session against the Integrity (Workflow) Server
+     * Borrows an authenticated API Session against the Integrity (Workflow) Server from the session pool
+     * The session must be given back using IntegritySCM.DescriptorImpl.returnAPISession()
      * @return An authenticated API Session
      */
     public APISession createAPISession()
@@ -251,7 +252,7 @@ public class IntegrityItemAction extends Notifier
     	try
     	{
     		Logger.debug("Creating Integrity API Session...");
-    		return new APISession(null, 0, hostName, port, userName, Base64.decode(password), secure);
+    		return IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.borrowAPISession(null, 0, hostName, port, userName, Base64.decode(password), secure);
     	}
     	catch(APIException aex)
     	{
@@ -359,7 +360,7 @@ public class IntegrityItemAction extends Notifier
 	        	}
 	        	finally
 	        	{
-	        		api.Terminate();
+	        		IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.returnAPISession(api);
 	        	}
 	        }
 	        catch (Throwable e) 
@@ -0,0 +1,435 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A content-addressed cache of checked out member revisions on a build machine.
+ * Workspaces are filled by copying from the cache, so the same revision is only fetched
+ * from the Integrity Server once per machine, regardless of the number of jobs or workspaces.
+ * Entries are keyed by server, member, revision and the checkout options affecting the file's
+ * content or timestamp.  The least recently used entries are evicted once the size cap is exceeded;
+ * recency is tracked in memory, so after a restart the existing entries are evicted in directory order.
+ */
+public class IntegrityMemberCache
+{
+	// One cache per directory for all checkouts executing in this JVM
+	private static final Map<File, IntegrityMemberCache> caches = new HashMap<File, IntegrityMemberCache>();
+
+	private final File cacheDir;
+	// Each entry in least recently used order
+	private final LinkedHashMap<String, Slot> entries;
+	private long maxSize;
+	private long size;
+	private long hits;
+	private long misses;
+
+	private IntegrityMemberCache(File cacheDir, long maxSize)
+	{
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, Slot>(1024, 0.75f, true);
+		scan();
+	}
+
+	/**
+	 * Returns the cache for a directory, creating it as necessary
+	 * @param cacheDir Cache directory on this machine
+	 * @param maxSize Maximum size of the cache in bytes
+	 * @return
+	 */
+	public static IntegrityMemberCache getCache(File cacheDir, long maxSize)
+	{
+		File dir = cacheDir.getAbsoluteFile();
+		synchronized(caches)
+		{
+			IntegrityMemberCache cache = caches.get(dir);
+			if( null == cache )
+			{
+				dir.mkdirs();
+				cache = new IntegrityMemberCache(dir, maxSize);
+				caches.put(dir, cache);
+			}
+			cache.setMaxSize(maxSize);
+			return cache;
+		}
+	}
+
+	/**
+	 * Returns the cache key for a member revision
+	 * @param server Integrity Server in the form 'host:port'
+	 * @param memberID Full server side path for the Integrity member
+	 * @param memberRev Member revision string
+	 * @param lineTerminator Line terminator used for the checkout
+	 * @param restoreTimestamp Toggles whether the original timestamp was restored
+	 * @return
+	 */
+	public static String getKey(String server, String memberID, String memberRev, String lineTerminator, boolean restoreTimestamp)
+	{
+		return DigestUtils.md5Hex(server + '|' + memberID + '|' + memberRev + '|' + lineTerminator + '|' + restoreTimestamp);
+	}
+
+	/**
+	 * Registers the entries already present in the cache directory
+	 */
+	private synchronized void scan()
+	{
+		File[] buckets = cacheDir.listFiles();
+		for( int i = 0; null != buckets && i < buckets.length; i++ )
+		{
+			File[] files = buckets[i].isDirectory() ? buckets[i].listFiles() : null;
+			for( int j = 0; null != files && j < files.length; j++ )
+			{
+				if( files[j].getName().endsWith(".tmp") )
+				{
+					// Left over from an interrupted store
+					files[j].delete();
+				}
+				else
+				{
+					entries.put(files[j].getName(), new Slot(files[j].length()));
+					size += files[j].length();
+				}
+			}
+		}
+		Logger.debug("Member cache " + cacheDir.getAbsolutePath() + " contains " + entries.size() + " entries (" + size + " bytes)");
+	}
+
+	/**
+	 * Updates the size cap, evicting entries if necessary
+	 * @param maxSize Maximum size of the cache in bytes
+	 */
+	private synchronized void setMaxSize(long maxSize)
+	{
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * Returns the file holding an entry
+	 */
+	private File getFile(String key)
+	{
+		return new File(new File(cacheDir, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * Fills a workspace file from the cache
+	 * @param key Cache key returned by getKey()
+	 * @param targetFile Workspace file
+	 * @param restoreTimestamp Toggles whether the workspace file gets the entry's (original) timestamp or the current time
+	 * @return The MD5 checksum of the copied content or null on a miss
+	 */
+	public String get(String key, File targetFile, boolean restoreTimestamp)
+	{
+		Slot slot;
+		synchronized(this)
+		{
+			slot = entries.get(key);
+			if( null == slot )
+			{
+				misses++;
+				return null;
+			}
+		}
+
+		try
+		{
+			targetFile.getParentFile().mkdirs();
+			String checksum = copy(getFile(key), targetFile, restoreTimestamp);
+			synchronized(this){ hits++; }
+			return checksum;
+		}
+		catch(IOException ioe)
+		{
+			// The entry was evicted or damaged in the meantime
+			Logger.debug("Failed to copy member cache entry " + key + ": " + ioe.getMessage());
+			remove(key, slot);
+			synchronized(this){ misses++; }
+			return null;
+		}
+	}
+
+	/**
+	 * Reads an entry from the cache, i.e. to hand it to another machine
+	 * @param key Cache key returned by getKey()
+	 * @param maxLength Entries larger than this (in bytes) are not read
+	 * @return The entry's content or null on a miss or if the entry is too large
+	 */
+	public Entry read(String key, long maxLength)
+	{
+		Slot slot;
+		synchronized(this)
+		{
+			slot = entries.get(key);
+			if( null == slot || slot.length > maxLength )
+			{
+				misses++;
+				return null;
+			}
+		}
+
+		File file = getFile(key);
+		InputStream is = null;
+		try
+		{
+			long lastModified = file.lastModified();
+			is = new FileInputStream(file);
+			byte[] content = IOUtils.toByteArray(is);
+			synchronized(this){ hits++; }
+			return new Entry(content, lastModified);
+		}
+		catch(IOException ioe)
+		{
+			// The entry was evicted or damaged in the meantime
+			Logger.debug("Failed to read member cache entry " + key + ": " + ioe.getMessage());
+			remove(key, slot);
+			synchronized(this){ misses++; }
+			return null;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Adds a freshly checked out workspace file to the cache
+	 * @param key Cache key returned by getKey()
+	 * @param sourceFile Workspace file
+	 * @return The MD5 checksum of the workspace file or null if it wasn't copied
+	 */
+	public String put(String key, File sourceFile)
+	{
+		synchronized(this)
+		{
+			if( null != entries.get(key) || sourceFile.length() > maxSize )
+			{
+				return null;
+			}
+		}
+
+		File entry = getFile(key);
+		File tmp = new File(entry.getParentFile(), key + "." + Thread.currentThread().getId() + ".tmp");
+		try
+		{
+			entry.getParentFile().mkdirs();
+			String checksum = copy(sourceFile, tmp, true);
+			// Readers never see a partially written entry
+			if( ! tmp.renameTo(entry) && ! entry.isFile() )
+			{
+				throw new IOException("Failed to rename " + tmp.getAbsolutePath());
+			}
+			synchronized(this)
+			{
+				if( null == entries.get(key) )
+				{
+					entries.put(key, new Slot(entry.length()));
+					size += entry.length();
+					evict();
+				}
+			}
+			return checksum;
+		}
+		catch(IOException ioe)
+		{
+			Logger.debug("Failed to add " + sourceFile.getAbsolutePath() + " to the member cache: " + ioe.getMessage());
+			return null;
+		}
+		finally
+		{
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Removes an entry from the cache, unless it was replaced since it was looked up
+	 * @param key Cache key returned by getKey()
+	 * @param slot Entry that was looked up
+	 */
+	private synchronized void remove(String key, Slot slot)
+	{
+		// Another checkout may have evicted the entry and added it again in the meantime
+		if( entries.get(key) == slot )
+		{
+			entries.remove(key);
+			size -= slot.length;
+			getFile(key).delete();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits its size cap
+	 */
+	private synchronized void evict()
+	{
+		Iterator<Map.Entry<String, Slot>> it = entries.entrySet().iterator();
+		while( size > maxSize && it.hasNext() )
+		{
+			Map.Entry<String, Slot> entry = it.next();
+			size -= entry.getValue().length;
+			getFile(entry.getKey()).delete();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Copies a file, optionally preserving its timestamp
+	 * @return The MD5 checksum of the content, computed as it is copied
+	 */
+	private static String copy(File source, File target, boolean preserveTimestamp) throws IOException
+	{
+		MessageDigest digest = IntegrityChecksumEngine.createDigest();
+		InputStream is = null;
+		OutputStream os = null;
+		try
+		{
+			is = new DigestInputStream(new FileInputStream(source), digest);
+			os = new FileOutputStream(target);
+			IOUtils.copy(is, os);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(is);
+			IOUtils.closeQuietly(os);
+		}
+		if( preserveTimestamp )
+		{
+			target.setLastModified(source.lastModified());
+		}
+		return IntegrityChecksumEngine.toHex(digest);
+	}
+
+	/**
+	 * Registered entry; a new instance is created each time an entry is added
+	 */
+	private static final class Slot
+	{
+		private final long length;
+
+		private Slot(long length)
+		{
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Content of a cache entry, as handed between machines
+	 */
+	public static final class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 6287915324178356209L;
+		private final byte[] content;
+		private final long lastModified;
+
+		public Entry(byte[] content, long lastModified)
+		{
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Writes the content to a workspace file
+		 * @param targetFile Workspace file
+		 * @param restoreTimestamp Toggles whether the workspace file gets the entry's (original) timestamp or the current time
+		 * @return The MD5 checksum of the content
+		 * @throws IOException
+		 */
+		public String writeTo(File targetFile, boolean restoreTimestamp) throws IOException
+		{
+			targetFile.getParentFile().mkdirs();
+			OutputStream os = new FileOutputStream(targetFile);
+			try
+			{
+				os.write(content);
+			}
+			finally
+			{
+				IOUtils.closeQuietly(os);
+			}
+			if( restoreTimestamp )
+			{
+				targetFile.setLastModified(lastModified);
+			}
+			return DigestUtils.md5Hex(content);
+		}
+
+		/**
+		 * Returns the size of the content in bytes
+		 * @return
+		 */
+		public int getLength()
+		{
+			return content.length;
+		}
+	}
+
+	/**
+	 * Returns true if the cache holds an entry, without counting a hit or miss
+	 * @param key Cache key returned by getKey()
+	 * @return
+	 */
+	public synchronized boolean contains(String key)
+	{
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Returns the cache directory
+	 * @return
+	 */
+	public File getCacheDir()
+	{
+		return cacheDir;
+	}
+
+	/**
+	 * Returns the current size of the cache in bytes
+	 * @return
+	 */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the number of entries in the cache
+	 * @return
+	 */
+	public synchronized int getEntryCount()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups served from the cache since this JVM was started
+	 * @return
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups not served from the cache since this JVM was started
+	 * @return
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+}
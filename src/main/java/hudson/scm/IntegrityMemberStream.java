@@ -0,0 +1,361 @@
+package hudson.scm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compact binary encoding of the member list handed to a checkout on a slave.
+ * Only the fields needed for the checkout are sent, repeated strings (project configuration
+ * paths and the project root) are sent once, and the slave decodes the members one at a time
+ * while the checkout proceeds, instead of receiving the whole list as a serialized object.
+ * For incremental checkouts only the added, updated and dropped members are sent in full;
+ * unchanged members are either left out or reduced to a (relative path, checksum) manifest
+ * entry, which the slave verifies and reports back if the workspace file was changed.
+ */
+public class IntegrityMemberStream
+{
+	private static final int MAGIC = 0x494d5331;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Flags describing which fields are sent for a member
+	private static final int MEMBER_ID_IS_NAME = 1;
+	private static final int NAME_IS_PREFIXED = 2;
+	private static final int HAS_CHECKSUM = 4;
+	private static final int HAS_DELTA = 8;
+	private static final int MANIFEST_ONLY = 16;
+
+	/**
+	 * Returns true if a member is unchanged since the previous build
+	 */
+	private static boolean isUnchanged(Hashtable<CM_PROJECT, Object> memberInfo)
+	{
+		Object delta = memberInfo.get(CM_PROJECT.DELTA);
+		return null != delta && Short.parseShort(delta.toString()) == 0;
+	}
+
+	/**
+	 * Returns the checksum recorded for a member or an empty string
+	 */
+	private static String getChecksum(Hashtable<CM_PROJECT, Object> memberInfo)
+	{
+		Object checksum = memberInfo.get(CM_PROJECT.CHECKSUM);
+		return (null == checksum ? "" : checksum.toString());
+	}
+
+	/**
+	 * Writes the member list to a stream and closes it
+	 * @param members Member list from IntegrityCMProject.viewProject()
+	 * @param out Stream to write to
+	 * @param changesOnly Toggles whether unchanged members are left out (or only sent as manifest entries)
+	 * @param withManifest Toggles whether unchanged members with a checksum are sent as manifest entries
+	 * @param fullManifest Toggles whether unchanged members without a checksum are sent as manifest entries as well
+	 * @throws IOException
+	 */
+	public static void write(List<Hashtable<CM_PROJECT, Object>> members, OutputStream out, boolean changesOnly, 
+								boolean withManifest, boolean fullManifest) throws IOException
+	{
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		try
+		{
+			int count = 0;
+			for( Hashtable<CM_PROJECT, Object> memberInfo : members )
+			{
+				if( ! changesOnly || ! isUnchanged(memberInfo) || isManifestEntry(memberInfo, withManifest, fullManifest) )
+				{
+					count++;
+				}
+			}
+
+			Map<String, Integer> strings = new HashMap<String, Integer>();
+			dos.writeInt(MAGIC);
+			dos.writeInt(count);
+			for( Hashtable<CM_PROJECT, Object> memberInfo : members )
+			{
+				String relativeFile = memberInfo.get(CM_PROJECT.RELATIVE_FILE).toString();
+				if( changesOnly && isUnchanged(memberInfo) )
+				{
+					if( isManifestEntry(memberInfo, withManifest, fullManifest) )
+					{
+						dos.writeByte(MANIFEST_ONLY);
+						dos.writeUTF(relativeFile);
+						dos.writeUTF(getChecksum(memberInfo));
+					}
+					continue;
+				}
+
+				String name = memberInfo.get(CM_PROJECT.NAME).toString();
+				String memberID = memberInfo.get(CM_PROJECT.MEMBER_ID).toString();
+				Object delta = memberInfo.get(CM_PROJECT.DELTA);
+				String checksum = getChecksum(memberInfo);
+				boolean prefixed = name.endsWith(relativeFile);
+
+				int flags = (memberID.equals(name) ? MEMBER_ID_IS_NAME : 0) | (prefixed ? NAME_IS_PREFIXED : 0) |
+							(checksum.length() > 0 ? HAS_CHECKSUM : 0) | (null != delta ? HAS_DELTA : 0);
+				dos.writeByte(flags);
+				if( null != delta )
+				{
+					dos.writeByte(Short.parseShort(delta.toString()));
+				}
+				dos.writeUTF(relativeFile);
+				if( prefixed )
+				{
+					writeString(dos, strings, name.substring(0, name.length() - relativeFile.length()));
+				}
+				else
+				{
+					dos.writeUTF(name);
+				}
+				if( (flags & MEMBER_ID_IS_NAME) == 0 )
+				{
+					dos.writeUTF(memberID);
+				}
+				dos.writeUTF(memberInfo.get(CM_PROJECT.REVISION).toString());
+				writeString(dos, strings, memberInfo.get(CM_PROJECT.CONFIG_PATH).toString());
+				if( (flags & HAS_CHECKSUM) != 0 )
+				{
+					dos.writeUTF(checksum);
+				}
+			}
+			dos.flush();
+		}
+		finally
+		{
+			IOUtils.closeQuietly(dos);
+		}
+	}
+
+	/**
+	 * Writes the member list on a background thread, so the checkout can start reading right away
+	 * @param members Member list from IntegrityCMProject.viewProject()
+	 * @param out Stream to write to
+	 * @param changesOnly Toggles whether unchanged members are left out (or only sent as manifest entries)
+	 * @param withManifest Toggles whether unchanged members with a checksum are sent as manifest entries
+	 * @param fullManifest Toggles whether unchanged members without a checksum are sent as manifest entries as well
+	 * @return The writer thread
+	 */
+	public static Thread writeAsync(final List<Hashtable<CM_PROJECT, Object>> members, final OutputStream out, 
+										final boolean changesOnly, final boolean withManifest, final boolean fullManifest)
+	{
+		Thread writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					write(members, out, changesOnly, withManifest, fullManifest);
+				}
+				catch(IOException ioe)
+				{
+					Logger.warn("Failed to stream member list to checkout: " + ioe.getMessage());
+				}
+			}
+		}, "Integrity Member List Writer");
+		writer.setDaemon(true);
+		writer.start();
+		return writer;
+	}
+
+	/**
+	 * Returns true if an unchanged member is sent as a manifest entry
+	 */
+	private static boolean isManifestEntry(Hashtable<CM_PROJECT, Object> memberInfo, boolean withManifest, boolean fullManifest)
+	{
+		return fullManifest || (withManifest && getChecksum(memberInfo).length() > 0);
+	}
+
+	/**
+	 * Writes a string that is likely to repeat; only its index is sent after the first time
+	 */
+	private static void writeString(DataOutputStream dos, Map<String, Integer> strings, String value) throws IOException
+	{
+		Integer index = strings.get(value);
+		if( null == index )
+		{
+			dos.writeInt(strings.size());
+			dos.writeUTF(value);
+			strings.put(value, Integer.valueOf(strings.size()));
+		}
+		else
+		{
+			dos.writeInt(index.intValue());
+		}
+	}
+
+	/**
+	 * Returns a source decoding the members from a stream
+	 * @param in Stream written by write()
+	 * @return
+	 * @throws IOException if the stream doesn't contain a member list
+	 */
+	public static Source open(InputStream in) throws IOException
+	{
+		return new StreamSource(in);
+	}
+
+	/**
+	 * Returns a source for a member list that is already in memory
+	 * @param members Member list from IntegrityCMProject.viewProject()
+	 * @return
+	 */
+	public static Source open(List<Hashtable<CM_PROJECT, Object>> members)
+	{
+		return new ListSource(members);
+	}
+
+	/**
+	 * Returns true if a member was received as a manifest entry, without the details needed to check it out
+	 * @param memberInfo Member returned by Source.next()
+	 * @return
+	 */
+	public static boolean isManifestOnly(Hashtable<CM_PROJECT, Object> memberInfo)
+	{
+		return null == memberInfo.get(CM_PROJECT.MEMBER_ID);
+	}
+
+	/**
+	 * Members to be synchronized by a checkout; safe for use by several threads
+	 */
+	public static abstract class Source
+	{
+		/**
+		 * Returns the total number of members
+		 * @return
+		 */
+		public abstract int size();
+
+		/**
+		 * Returns the next member
+		 * @return The member information or null after the last member
+		 * @throws IOException
+		 */
+		public abstract Hashtable<CM_PROJECT, Object> next() throws IOException;
+
+		/**
+		 * Releases the underlying stream
+		 */
+		public void close()
+		{
+		}
+	}
+
+	private static final class ListSource extends Source
+	{
+		private final int size;
+		private final Iterator<Hashtable<CM_PROJECT, Object>> it;
+
+		private ListSource(List<Hashtable<CM_PROJECT, Object>> members)
+		{
+			this.size = members.size();
+			this.it = members.iterator();
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public synchronized Hashtable<CM_PROJECT, Object> next()
+		{
+			return (it.hasNext() ? it.next() : null);
+		}
+	}
+
+	private static final class StreamSource extends Source
+	{
+		private final DataInputStream dis;
+		private final List<String> strings;
+		private final int size;
+		private int read;
+
+		private StreamSource(InputStream in) throws IOException
+		{
+			this.dis = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+			this.strings = new ArrayList<String>();
+			if( dis.readInt() != MAGIC )
+			{
+				throw new IOException("Invalid member list stream!");
+			}
+			this.size = dis.readInt();
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public synchronized Hashtable<CM_PROJECT, Object> next() throws IOException
+		{
+			if( read >= size )
+			{
+				return null;
+			}
+
+			try
+			{
+				Hashtable<CM_PROJECT, Object> memberInfo = new Hashtable<CM_PROJECT, Object>();
+				int flags = dis.readByte();
+				if( (flags & MANIFEST_ONLY) != 0 )
+				{
+					// Only the details needed to verify the workspace file
+					memberInfo.put(CM_PROJECT.DELTA, Short.valueOf((short)0));
+					memberInfo.put(CM_PROJECT.RELATIVE_FILE, dis.readUTF());
+					memberInfo.put(CM_PROJECT.CHECKSUM, dis.readUTF());
+					read++;
+					return memberInfo;
+				}
+				if( (flags & HAS_DELTA) != 0 )
+				{
+					memberInfo.put(CM_PROJECT.DELTA, Short.valueOf(dis.readByte()));
+				}
+				String relativeFile = dis.readUTF();
+				String name = ((flags & NAME_IS_PREFIXED) != 0 ? readString() + relativeFile : dis.readUTF());
+				memberInfo.put(CM_PROJECT.RELATIVE_FILE, relativeFile);
+				memberInfo.put(CM_PROJECT.NAME, name);
+				memberInfo.put(CM_PROJECT.MEMBER_ID, ((flags & MEMBER_ID_IS_NAME) != 0 ? name : dis.readUTF()));
+				memberInfo.put(CM_PROJECT.REVISION, dis.readUTF());
+				memberInfo.put(CM_PROJECT.CONFIG_PATH, readString());
+				if( (flags & HAS_CHECKSUM) != 0 )
+				{
+					memberInfo.put(CM_PROJECT.CHECKSUM, dis.readUTF());
+				}
+				read++;
+				return memberInfo;
+			}
+			catch(EOFException eofe)
+			{
+				throw new IOException("Member list ended after " + read + " of " + size + " members!");
+			}
+		}
+
+		/**
+		 * Reads a string written by writeString()
+		 */
+		private String readString() throws IOException
+		{
+			int index = dis.readInt();
+			if( index == strings.size() )
+			{
+				strings.add(dis.readUTF());
+			}
+			return strings.get(index);
+		}
+
+		public void close()
+		{
+			IOUtils.closeQuietly(dis);
+		}
+	}
+}
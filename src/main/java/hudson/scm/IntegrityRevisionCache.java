@@ -0,0 +1,297 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.mks.api.response.APIException;
+import com.mks.api.util.Base64;
+
+import hudson.model.Hudson;
+
+/**
+ * A cache of member revisions on the master shared by all build machines.
+ * Checkouts on slaves ask the master for a revision before going to the Integrity Server, so a
+ * new revision is only transferred from the server once, no matter how many slaves need it.
+ * Each request carries a batch of revisions; the misses are fetched with a single si projectco and
+ * concurrent requests for the same revision are coalesced, so it is only fetched once.
+ */
+public class IntegrityRevisionCache
+{
+	// Maximum number of bytes transferred over the remoting channel for a single request
+	public static final int MAX_TRANSFER_SIZE = 32 * 1024 * 1024;
+	private static final String CACHE_DIR = "integrity-revision-cache";
+	private static IntegrityRevisionCache instance;
+
+	private final IntegrityMemberCache cache;
+	// Fetches from the Integrity Server that are currently in progress
+	private final ConcurrentHashMap<String, CountDownLatch> pending;
+
+	private IntegrityRevisionCache(IntegrityMemberCache cache)
+	{
+		this.cache = cache;
+		this.pending = new ConcurrentHashMap<String, CountDownLatch>();
+	}
+
+	/**
+	 * Returns the revision cache of this master
+	 * @return The revision cache or null if it is disabled
+	 */
+	public static synchronized IntegrityRevisionCache getInstance()
+	{
+		int cacheSize = IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.getMasterCacheSize();
+		if( cacheSize <= 0 )
+		{
+			return null;
+		}
+		IntegrityMemberCache cache = IntegrityMemberCache.getCache(new File(Hudson.getInstance().getRootDir(), CACHE_DIR), cacheSize * 1024L * 1024L);
+		if( null == instance )
+		{
+			instance = new IntegrityRevisionCache(cache);
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns a batch of revisions from the cache, fetching the misses from the Integrity Server with a single command
+	 * @param request Revisions requested by a checkout
+	 * @return The content of each requested revision, null for the ones that could not be provided
+	 * @throws InterruptedException
+	 */
+	public IntegrityMemberCache.Entry[] get(FetchRequest request) throws InterruptedException
+	{
+		int count = request.memberIDs.size();
+		List<CountDownLatch> waiting = new ArrayList<CountDownLatch>();
+		List<Integer> owned = new ArrayList<Integer>();
+		List<CountDownLatch> ownedLatches = new ArrayList<CountDownLatch>();
+		for( int i = 0; i < count; i++ )
+		{
+			String key = request.getKey(i);
+			if( cache.contains(key) )
+			{
+				continue;
+			}
+
+			// Only the first request for a revision goes to the server, the others wait for it to complete
+			CountDownLatch fetch = new CountDownLatch(1);
+			CountDownLatch inProgress = pending.putIfAbsent(key, fetch);
+			if( null == inProgress )
+			{
+				owned.add(Integer.valueOf(i));
+				ownedLatches.add(fetch);
+			}
+			else
+			{
+				waiting.add(inProgress);
+			}
+		}
+
+		if( owned.size() > 0 )
+		{
+			try
+			{
+				fetch(request, owned);
+			}
+			catch(APIException aex)
+			{
+				Logger.warn("Failed to fetch " + owned.size() + " revisions from " + request.configPath + " for the revision cache: " + new ExceptionHandler(aex).getMessage());
+			}
+			catch(IOException ioe)
+			{
+				Logger.warn("Failed to fetch " + owned.size() + " revisions from " + request.configPath + " for the revision cache: " + ioe.getMessage());
+			}
+			finally
+			{
+				// Lets any requests waiting for these revisions look them up in the cache
+				for( int i = 0; i < owned.size(); i++ )
+				{
+					pending.remove(request.getKey(owned.get(i).intValue()), ownedLatches.get(i));
+					ownedLatches.get(i).countDown();
+				}
+			}
+		}
+		for( CountDownLatch fetch : waiting )
+		{
+			fetch.await();
+		}
+
+		// Only read as much as may be transferred in total; the remaining revisions are left for the slave to fetch itself
+		IntegrityMemberCache.Entry[] entries = new IntegrityMemberCache.Entry[count];
+		long budget = MAX_TRANSFER_SIZE;
+		for( int i = 0; i < count && budget > 0; i++ )
+		{
+			entries[i] = cache.read(request.getKey(i), budget);
+			if( null != entries[i] )
+			{
+				budget -= entries[i].getLength();
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Checks out a set of revisions of the same project and revision into the cache
+	 * @param request Revisions requested by a checkout
+	 * @param indexes Positions of the revisions in the request that need to be fetched
+	 */
+	private void fetch(FetchRequest request, List<Integer> indexes) throws APIException, IOException
+	{
+		List<String> keys = new ArrayList<String>();
+		List<String> memberIDs = new ArrayList<String>();
+		List<File> tmpFiles = new ArrayList<File>();
+		try
+		{
+			for( Integer i : indexes )
+			{
+				// The revision may have been added since the caller's lookup
+				String key = request.getKey(i.intValue());
+				if( ! cache.contains(key) )
+				{
+					keys.add(key);
+					memberIDs.add(request.memberIDs.get(i.intValue()));
+					tmpFiles.add(File.createTempFile("checkout", ".tmp", cache.getCacheDir()));
+				}
+			}
+			if( memberIDs.isEmpty() )
+			{
+				return;
+			}
+
+			APISession api = IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.borrowAPISession(request.ipHostName, request.ipPort, request.hostName,
+									request.port, request.userName, Base64.decode(request.password), request.secure);
+			try
+			{
+				Logger.debug("Fetching " + memberIDs.size() + " revisions from " + request.configPath + " for the revision cache");
+				Set<String> failed = new HashSet<String>();
+				if( memberIDs.size() == 1 )
+				{
+					if( ! IntegrityCMMember.checkout(api, request.configPath, memberIDs.get(0), request.memberRev, tmpFiles.get(0),
+														request.restoreTimestamp, request.lineTerminator) )
+					{
+						failed.add(memberIDs.get(0));
+					}
+				}
+				else
+				{
+					failed = IntegrityCMMember.checkout(api, request.configPath, memberIDs, request.memberRev, tmpFiles,
+														request.restoreTimestamp, request.lineTerminator);
+				}
+
+				for( int i = 0; i < memberIDs.size(); i++ )
+				{
+					if( ! failed.contains(memberIDs.get(i)) )
+					{
+						cache.put(keys.get(i), tmpFiles.get(i));
+					}
+				}
+			}
+			finally
+			{
+				IntegritySCM.DescriptorImpl.INTEGRITY_DESCRIPTOR.returnAPISession(api);
+			}
+		}
+		finally
+		{
+			for( File tmp : tmpFiles )
+			{
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Request for a batch of revisions sent from a checkout on a slave to the master
+	 * All revisions belong to the same project/subproject and are checked out at the same revision
+	 */
+	public static final class FetchRequest implements hudson.remoting.Callable<IntegrityMemberCache.Entry[], IOException>
+	{
+		private static final long serialVersionUID = 6254870313245170192L;
+		private final String ipHostName;
+		private final int ipPort;
+		private final String hostName;
+		private final int port;
+		private final boolean secure;
+		private final String userName;
+		private final String password;
+		private final String configPath;
+		private final ArrayList<String> memberIDs;
+		private final String memberRev;
+		private final String lineTerminator;
+		private final boolean restoreTimestamp;
+
+		/**
+		 * Creates a request for a batch of revisions
+		 * @param ipHostName Integration Point Hostname
+		 * @param ipPort Integration Point Port
+		 * @param hostName Integrity Server Hostname
+		 * @param port Integrity Server Port
+		 * @param secure Toggles whether Integrity Server is SSL enabled
+		 * @param userName Username to connect to the Integrity Server
+		 * @param password Encoded password for the Username connection to the Integrity Server
+		 * @param configPath Full server side path for the members' project/subproject
+		 * @param memberIDs Full server side paths for the Integrity members
+		 * @param memberRev Member revision string shared by all members
+		 * @param lineTerminator Line terminator of the requesting machine (crlf, cr or lf); native would be the master's
+		 * @param restoreTimestamp Toggles whether or not the original timestamp should be used
+		 */
+		public FetchRequest(String ipHostName, int ipPort, String hostName, int port, boolean secure, String userName, String password,
+							String configPath, List<String> memberIDs, String memberRev, String lineTerminator, boolean restoreTimestamp)
+		{
+			this.ipHostName = ipHostName;
+			this.ipPort = ipPort;
+			this.hostName = hostName;
+			this.port = port;
+			this.secure = secure;
+			this.userName = userName;
+			this.password = password;
+			this.configPath = configPath;
+			this.memberIDs = new ArrayList<String>(memberIDs);
+			this.memberRev = memberRev;
+			this.lineTerminator = lineTerminator;
+			this.restoreTimestamp = restoreTimestamp;
+		}
+
+		/**
+		 * Returns the cache key of a requested revision
+		 * Revisions are cached per set of credentials (the password is hashed like the session pool does), so a hit
+		 * never serves a revision to a request that couldn't have fetched it from the server itself
+		 * @param index Position of the revision in the request
+		 * @return
+		 */
+		private String getKey(int index)
+		{
+			String credentials = userName + ":" + DigestUtils.md5Hex(null == password ? "" : password);
+			return IntegrityMemberCache.getKey(credentials + "@" + hostName + ":" + port, memberIDs.get(index), memberRev, lineTerminator, restoreTimestamp);
+		}
+
+		/**
+		 * Executed on the master
+		 * @return The content of each revision, null for the ones the slave should fetch itself, or null if the cache is disabled
+		 */
+		public IntegrityMemberCache.Entry[] call() throws IOException
+		{
+			IntegrityRevisionCache revisionCache = getInstance();
+			if( null == revisionCache )
+			{
+				return null;
+			}
+
+			try
+			{
+				return revisionCache.get(this);
+			}
+			catch(InterruptedException iex)
+			{
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+}
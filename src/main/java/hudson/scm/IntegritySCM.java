@@ -7,9 +7,12 @@ import java.io.Serializable;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import hudson.Extension;
 import hudson.FilePath;
@@ -20,6 +23,7 @@ import hudson.model.AbstractProject;
 import hudson.model.Hudson;
 import hudson.model.BuildListener;
 import hudson.model.TaskListener;
+import hudson.remoting.Pipe;
 import hudson.scm.ChangeLogParser;
 import hudson.scm.PollingResult;
 import hudson.scm.SCMDescriptor;
@@ -73,7 +77,14 @@ public class IntegritySCM extends SCM implements Serializable
 	private boolean checkpointBeforeBuild = false;
 	private String alternateWorkspace;
 	private boolean fetchChangedWorkspaceFiles = false;
+	private int checkoutThreadPoolSize = 0;
+	private boolean useSandbox = false;
+	private boolean fastWipe = false;
+	private boolean fullChecksumVerify = false;
+	private boolean scrubWorkspace = false;
 	private transient IntegrityCMProject siProject; /* This will get initialized when checkout is executed */
+	// Number of si viewproject entries read ahead of the project parser
+	private static final int VIEWPROJECT_BUFFER_SIZE = 1000;
 
 	/**
 	 * Create a constructor that takes non-transient fields, and add the annotation @DataBoundConstructor to it. 
@@ -84,7 +95,8 @@ public class IntegritySCM extends SCM implements Serializable
 	public IntegritySCM(IntegrityRepositoryBrowser browser, String hostName, int port, boolean secure, String configPath, 
 							String userName, String password, String ipHostName, int ipPort, boolean cleanCopy, 
 							String lineTerminator, boolean restoreTimestamp, boolean skipAuthorInfo, boolean checkpointBeforeBuild,
-							String alternateWorkspace, boolean fetchChangedWorkspaceFiles)
+							String alternateWorkspace, boolean fetchChangedWorkspaceFiles, int checkoutThreadPoolSize,
+							boolean useSandbox, boolean fastWipe, boolean fullChecksumVerify, boolean scrubWorkspace)
 	{
     	// Log the construction
     	Logger.debug("IntegritySCM constructor has been invoked!");
@@ -106,6 +118,11 @@ public class IntegritySCM extends SCM implements Serializable
     	this.checkpointBeforeBuild = checkpointBeforeBuild;
     	this.alternateWorkspace = alternateWorkspace;
     	this.fetchChangedWorkspaceFiles = fetchChangedWorkspaceFiles;
+    	this.checkoutThreadPoolSize = checkoutThreadPoolSize;
+    	this.useSandbox = useSandbox;
+    	this.fastWipe = fastWipe;
+    	this.fullChecksumVerify = fullChecksumVerify;
+    	this.scrubWorkspace = scrubWorkspace;
 
     	// Initialize the Integrity URL
     	initIntegrityURL();
@@ -128,6 +145,11 @@ public class IntegritySCM extends SCM implements Serializable
     	Logger.debug("Checkpoint Before Build: " + this.checkpointBeforeBuild);
     	Logger.debug("Alternate Workspace Directory: " + this.alternateWorkspace);
     	Logger.debug("Fetch Changed Workspace Files: " + this.fetchChangedWorkspaceFiles);
+    	Logger.debug("Checkout Thread Pool Size: " + this.checkoutThreadPoolSize);
+    	Logger.debug("Use Sandbox: " + this.useSandbox);
+    	Logger.debug("Fast Wipe: " + this.fastWipe);
+    	Logger.debug("Full Checksum Verify: " + this.fullChecksumVerify);
+    	Logger.debug("Scrub Workspace: " + this.scrubWorkspace);
 	}
 
     @Override
@@ -274,6 +296,51 @@ public class IntegritySCM extends SCM implements Serializable
     {
     	return fetchChangedWorkspaceFiles;
     }
+
+    /**
+     * Returns the number of parallel API Sessions used to check out the workspace
+     * @return
+     */
+    public int getCheckoutThreadPoolSize()
+    {
+    	return checkoutThreadPoolSize;
+    }
+
+    /**
+     * Returns true if the workspace is kept as an Integrity Sandbox
+     * @return
+     */
+    public boolean getUseSandbox()
+    {
+    	return useSandbox;
+    }
+
+    /**
+     * Returns true if a clean copy deletes the previous workspace contents in the background
+     * @return
+     */
+    public boolean getFastWipe()
+    {
+    	return fastWipe;
+    }
+
+    /**
+     * Returns true if every unchanged workspace file is re-hashed to find the changed ones
+     * @return
+     */
+    public boolean getFullChecksumVerify()
+    {
+    	return fullChecksumVerify;
+    }
+
+    /**
+     * Returns true if the files that don't belong to the project are deleted from the workspace
+     * @return
+     */
+    public boolean getScrubWorkspace()
+    {
+    	return scrubWorkspace;
+    }
     
     /**
      * Sets the host name of the Integrity Server
@@ -412,6 +479,51 @@ public class IntegritySCM extends SCM implements Serializable
     {
     	this.fetchChangedWorkspaceFiles = fetchChangedWorkspaceFiles;
     }
+
+    /**
+     * Sets the number of parallel API Sessions used to check out the workspace
+     * @param checkoutThreadPoolSize
+     */
+    public void setCheckoutThreadPoolSize(int checkoutThreadPoolSize)
+    {
+    	this.checkoutThreadPoolSize = checkoutThreadPoolSize;
+    }
+
+    /**
+     * Toggles whether or not the workspace is kept as an Integrity Sandbox
+     * @param useSandbox
+     */
+    public void setUseSandbox(boolean useSandbox)
+    {
+    	this.useSandbox = useSandbox;
+    }
+
+    /**
+     * Toggles whether or not a clean copy deletes the previous workspace contents in the background
+     * @param fastWipe
+     */
+    public void setFastWipe(boolean fastWipe)
+    {
+    	this.fastWipe = fastWipe;
+    }
+
+    /**
+     * Toggles whether or not every unchanged workspace file is re-hashed to find the changed ones
+     * @param fullChecksumVerify
+     */
+    public void setFullChecksumVerify(boolean fullChecksumVerify)
+    {
+    	this.fullChecksumVerify = fullChecksumVerify;
+    }
+
+    /**
+     * Toggles whether or not the files that don't belong to the project are deleted from the workspace
+     * @param scrubWorkspace
+     */
+    public void setScrubWorkspace(boolean scrubWorkspace)
+    {
+    	this.scrubWorkspace = scrubWorkspace;
+    }
     
     /**
      * Provides a mechanism to update the Integrity URL, based on updates
@@ -431,7 +543,8 @@ public class IntegritySCM extends SCM implements Serializable
     }
     
     /**
-     * Creates an authenticated API Session against the Integrity Server
+     * Borrows an authenticated API Session against the Integrity Server from the session pool
+     * The session must be given back using DescriptorImpl.returnAPISession()
      * @return An authenticated API Session
      */
     public APISession createAPISession()
@@ -440,7 +553,7 @@ public class IntegritySCM extends SCM implements Serializable
     	try
     	{
     		Logger.debug("Creating Integrity API Session...");
-    		return new APISession(ipHostName, ipPort, hostName, port, userName, Base64.decode(password), secure);
+    		return DescriptorImpl.INTEGRITY_DESCRIPTOR.borrowAPISession(ipHostName, ipPort, hostName, port, userName, Base64.decode(password), secure);
     	}
     	catch(APIException aex)
     	{
@@ -515,12 +628,13 @@ public class IntegritySCM extends SCM implements Serializable
 
 	/**
 	 * Primes the Integrity Project Member metadata information
+	 * The si viewproject output is streamed, so aborting the build cancels the command on the server
 	 * @param api Integrity API Session
-	 * @return response Integrity API Response
 	 * @throws APIException
 	 * @throws SQLException 
+	 * @throws InterruptedException if the build was aborted
 	 */
-	private Response initializeCMProjectMembers(APISession api) throws APIException, SQLException
+	private void initializeCMProjectMembers(APISession api) throws APIException, SQLException, InterruptedException
 	{
 		// Lets parse this project
 		Command siViewProjectCmd = new Command(Command.SI, "viewproject");
@@ -535,9 +649,16 @@ public class IntegritySCM extends SCM implements Serializable
 		mvFields.add("memberdescription");
 		siViewProjectCmd.addOption(new Option("fields", mvFields));
 		Logger.debug("Preparing to execute si viewproject for " + siProject.getConfigurationPath());
-		Response viewRes = api.runCommandWithInterim(siViewProjectCmd);
-		siProject.parseProject(viewRes.getWorkItems());
-		return viewRes;
+		WorkItemStream members = new WorkItemStream(api, siViewProjectCmd, VIEWPROJECT_BUFFER_SIZE);
+		try
+		{
+			siProject.parseProject(members);
+			Logger.debug("Parsed " + members.getCount() + " entries from si viewproject for " + siProject.getConfigurationPath());
+		}
+		finally
+		{
+			members.close();
+		}
 	}
 	
     /**
@@ -568,6 +689,70 @@ public class IntegritySCM extends SCM implements Serializable
     	return projectDB;
     }
     
+	/**
+	 * Runs an IntegrityCheckoutTask to synchronize the workspace with a member list
+	 * @param workspace Workspace of the build
+	 * @param projectMembersList Members to be synchronized
+	 * @param dirList A list of all the unique directories in the Integrity SCM project
+	 * @param clean Indicates whether or not the workspace needs to be cleaned up prior to checking out files
+	 * @param changesOnly Toggles whether slaves only receive the changed members and a manifest of the unchanged ones
+	 * @param scrub Toggles whether untracked files are deleted; the member list must hold all members of the project
+	 * @param listener The Hudson build listener
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private IntegrityCheckoutTask.Result synchronizeWorkspace(FilePath workspace, List<Hashtable<CM_PROJECT, Object>> projectMembersList, 
+						List<String> dirList, boolean clean, boolean changesOnly, boolean scrub, BuildListener listener) throws IOException, InterruptedException
+	{
+		IntegrityCheckoutTask coTask = new IntegrityCheckoutTask(projectMembersList, dirList, alternateWorkspace, lineTerminator, 
+													restoreTimestamp, clean, fetchChangedWorkspaceFiles, listener);
+		
+		// Initialize the API Session connection settings for the check out task
+		coTask.initAPIVariables(ipHostName, ipPort, hostName, port, secure, userName, password);
+		coTask.setRecycleThreshold(DescriptorImpl.INTEGRITY_DESCRIPTOR.getCheckoutRecycleThreshold());
+		coTask.setCheckoutThreadPoolSize(checkoutThreadPoolSize);
+		coTask.setCheckoutBatchSize(DescriptorImpl.INTEGRITY_DESCRIPTOR.getCheckoutBatchSize());
+		coTask.setMemberCache(DescriptorImpl.INTEGRITY_DESCRIPTOR.getMemberCacheDir(), DescriptorImpl.INTEGRITY_DESCRIPTOR.getMemberCacheSize());
+		// Checkouts on the master itself have nothing to gain from the revision cache
+		coTask.setUseMasterCache(DescriptorImpl.INTEGRITY_DESCRIPTOR.getMasterCacheSize() > 0 && workspace.isRemote());
+		coTask.setFastWipe(fastWipe);
+		coTask.setFullVerify(fullChecksumVerify);
+		coTask.setScrubWorkspace(scrub);
+		coTask.setCollectCommandMetrics(workspace.isRemote());
+		
+		// Stream the member list to slaves, so the checkout can start before the whole list arrived
+		Thread memberWriter = null;
+		if( workspace.isRemote() )
+		{
+			Pipe memberPipe = Pipe.createLocalToRemote();
+			coTask.setMemberPipe(memberPipe);
+			// The scrubber needs to know about every member, changed or not
+			memberWriter = IntegrityMemberStream.writeAsync(projectMembersList, memberPipe.getOut(), changesOnly && ! clean, 
+																fetchChangedWorkspaceFiles, scrub);
+		}
+		
+		// Execute the IntegrityCheckoutTask.invoke() method to do the actual synchronization...
+		try
+		{
+			IntegrityCheckoutTask.Result coResult = workspace.act(coTask);
+			// Commands executed on slaves show up in the master's metrics as well
+			if( null != coResult.getCommandMetrics() )
+			{
+				APICommandMetrics.merge(coResult.getCommandMetrics());
+			}
+			return coResult;
+		}
+		finally
+		{
+			// The checkout may have failed before reading the whole member list
+			if( null != memberWriter && memberWriter.isAlive() )
+			{
+				memberWriter.interrupt();
+			}
+		}
+	}
+	
 	/**
 	 * Overridden checkout function
 	 * This is the real invocation of this plugin.
@@ -666,30 +851,58 @@ public class IntegritySCM extends SCM implements Serializable
 	        // Now, lets figure out how to populate the workspace...
 			List<Hashtable<CM_PROJECT, Object>> projectMembersList = siProject.viewProject();
 			List<String> dirList = siProject.getDirList();
-			IntegrityCheckoutTask coTask = null;
-			if( null == prevProjectDB )
-			{ 
-				// If we we were not able to establish the previous project state, 
-				// then always do full checkout.  cleanCopy = true
-				coTask = new IntegrityCheckoutTask(projectMembersList, dirList, alternateWorkspace, lineTerminator, 
-													restoreTimestamp, true, fetchChangedWorkspaceFiles, listener);
+			// The workspace is synchronized with sessions of its own, which may take hours on large projects
+			DescriptorImpl.INTEGRITY_DESCRIPTOR.returnAPISession(api);
+			api = null;
+			IntegrityCheckoutTask.Result coResult = null;
+			boolean synchronizedWorkspace = false;
+			if( useSandbox )
+			{
+				// Let the server resynchronize the sandbox, the change log is still based on the project state comparison
+				IntegritySandboxTask sandboxTask = new IntegritySandboxTask(siProject.getConfigurationPath(), siProject.getProjectName(),
+																			alternateWorkspace, restoreTimestamp, lineTerminator, cleanCopy, listener);
+				sandboxTask.initAPIVariables(ipHostName, ipPort, hostName, port, secure, userName, password);
+				synchronizedWorkspace = workspace.act(sandboxTask);
 			}
-			else 
+			else
 			{
-				// Otherwise, update the workspace in accordance with the user's cleanCopy option				
-				coTask = new IntegrityCheckoutTask(projectMembersList, dirList, alternateWorkspace, lineTerminator, 
-													restoreTimestamp, cleanCopy, fetchChangedWorkspaceFiles, listener);
+				// If we we were not able to establish the previous project state, 
+				// then always do full checkout.  cleanCopy = true
+				// Otherwise, update the workspace in accordance with the user's cleanCopy option
+				boolean clean = (null == prevProjectDB || cleanCopy);
+				coResult = synchronizeWorkspace(workspace, projectMembersList, dirList, clean, true, scrubWorkspace && ! clean, listener);
+				synchronizedWorkspace = coResult.isSynchronized();
+				IntegrityCheckoutStatistics statistics = coResult.getStatistics();
+				
+				// Slaves only verified the unchanged files, send the details of the changed ones to restore them
+				if( synchronizedWorkspace && coResult.getChangedFiles().size() > 0 )
+				{
+					Set<String> changedFiles = new HashSet<String>(coResult.getChangedFiles());
+					List<Hashtable<CM_PROJECT, Object>> restoreList = new ArrayList<Hashtable<CM_PROJECT, Object>>();
+					for( Hashtable<CM_PROJECT, Object> memberInfo : projectMembersList )
+					{
+						if( changedFiles.contains(memberInfo.get(CM_PROJECT.RELATIVE_FILE).toString()) )
+						{
+							restoreList.add(memberInfo);
+						}
+					}
+					listener.getLogger().println("Restoring " + restoreList.size() + " changed workspace files...");
+					IntegrityCheckoutTask.Result restoreResult = synchronizeWorkspace(workspace, restoreList, dirList, false, false, false, listener);
+					synchronizedWorkspace = restoreResult.isSynchronized();
+					// The restored files count as fetches of this checkout
+					if( null != statistics && null != restoreResult.getStatistics() )
+					{
+						statistics.merge(restoreResult.getStatistics());
+					}
+				}
+				build.addAction(new IntegrityCheckoutStatisticsAction(statistics));
 			}
 			
-			// Initialize the API Session connection settings for the check out task
-			coTask.initAPIVariables(ipHostName, ipPort, hostName, port, secure, userName, password);
-			
-			// Execute the IntegrityCheckoutTask.invoke() method to do the actual synchronization...
-			if( workspace.act(coTask) )
+			if( synchronizedWorkspace )
 			{ 
 				// Now that the workspace is updated, lets save the current project state for future comparisons
 				listener.getLogger().println("Saving current Integrity Project configuration...");
-				if( fetchChangedWorkspaceFiles ){ siProject.updateChecksum(coTask.getChecksumUpdates()); }
+				if( fetchChangedWorkspaceFiles && null != coResult ){ siProject.updateChecksum(coResult.getChecksumUpdates(), DescriptorImpl.INTEGRITY_DESCRIPTOR.getChecksumUpdateBatchSize()); }
 				// Write out the change log file, which will be used by the parser to report the updates
 				listener.getLogger().println("Writing build change log...");
 				writer.println(siProject.getChangeLog(String.valueOf(build.getNumber()), projectMembersList));				
@@ -725,7 +938,7 @@ public class IntegritySCM extends SCM implements Serializable
 	    {
 	    	writer.close();
 	    	siProject.closeProjectDB();
-	    	api.Terminate();
+	    	DescriptorImpl.INTEGRITY_DESCRIPTOR.returnAPISession(api);
 			
 	    }
 
@@ -813,7 +1026,7 @@ public class IntegritySCM extends SCM implements Serializable
 	        			}
 	        		    finally
 	        		    {
-	        				api.Terminate();
+	        				DescriptorImpl.INTEGRITY_DESCRIPTOR.returnAPISession(api);
 	        				DerbyUtils.shutdownDB(projectDB);
 	        				siProject.closeProjectDB();
 	        		    }
@@ -883,6 +1096,20 @@ public class IntegritySCM extends SCM implements Serializable
     	private boolean defaultSecure;
         private String defaultUserName;
         private String defaultPassword;
+        private int sessionPoolSize;
+        private int sessionPoolIdleTimeout;
+        private int checkoutRecycleThreshold;
+        private int checkoutBatchSize;
+        private String memberCacheDir;
+        private int memberCacheSize;
+        private int masterCacheSize;
+        private int checksumUpdateBatchSize;
+        private int maxConcurrentCommands;
+        private int admissionConcurrency;
+        private int admissionRate;
+        private String admissionOverrides;
+        private transient APISessionPool sessionPool;
+        private transient APIAdmissionController admissionController;
 		
         protected DescriptorImpl() 
         {
@@ -894,8 +1121,28 @@ public class IntegritySCM extends SCM implements Serializable
     		defaultSecure = false;
     		defaultUserName = "";
     		defaultPassword = "";
+    		sessionPoolSize = 20;
+    		sessionPoolIdleTimeout = 10;
+    		checkoutRecycleThreshold = IntegrityCheckoutTask.DEFAULT_RECYCLE_THRESHOLD;
+    		checkoutBatchSize = 0;
+    		memberCacheDir = "";
+    		memberCacheSize = 2048;
+    		masterCacheSize = 0;
+    		checksumUpdateBatchSize = 500;
+    		maxConcurrentCommands = APICommandExecutor.DEFAULT_MAX_CONCURRENT_COMMANDS;
+    		admissionConcurrency = 20;
+    		admissionRate = 0;
+    		admissionOverrides = "";
             load();
 
+            // Initialize the pool of API Sessions shared by all jobs
+            sessionPool = new APISessionPool(sessionPoolSize, sessionPoolIdleTimeout);
+            // Limit the number of asynchronous commands per server
+            APICommandExecutor.setMaxConcurrentCommands(maxConcurrentCommands);
+            // All commands sent from this master go through the admission controller
+            admissionController = new APIAdmissionController(admissionConcurrency, admissionRate, admissionOverrides);
+            APIAdmissionController.setActiveController(admissionController);
+
             // Initialize our derby environment
             DerbyUtils.setDerbySystemDir(Hudson.getInstance().getRootDir());
             DerbyUtils.loadDerbyDriver();
@@ -961,6 +1208,56 @@ public class IntegritySCM extends SCM implements Serializable
 			defaultPassword =  Base64.encode(Util.fixEmptyAndTrim(req.getParameter("mks.defaultPassword")));
 			Logger.debug("defaultPassword = " + DigestUtils.md5Hex(defaultPassword));
 
+			Logger.debug("mks.sessionPoolSize = " + req.getParameter("mks.sessionPoolSize"));
+			sessionPoolSize = Integer.parseInt(Util.fixNull(req.getParameter("mks.sessionPoolSize")));
+			sessionPool.setMaxSize(sessionPoolSize);
+			Logger.debug("sessionPoolSize = " + sessionPoolSize);
+
+			Logger.debug("mks.sessionPoolIdleTimeout = " + req.getParameter("mks.sessionPoolIdleTimeout"));
+			sessionPoolIdleTimeout = Integer.parseInt(Util.fixNull(req.getParameter("mks.sessionPoolIdleTimeout")));
+			sessionPool.setIdleTimeout(sessionPoolIdleTimeout);
+			Logger.debug("sessionPoolIdleTimeout = " + sessionPoolIdleTimeout);
+
+			Logger.debug("mks.checkoutRecycleThreshold = " + req.getParameter("mks.checkoutRecycleThreshold"));
+			checkoutRecycleThreshold = Integer.parseInt(Util.fixNull(req.getParameter("mks.checkoutRecycleThreshold")));
+			Logger.debug("checkoutRecycleThreshold = " + checkoutRecycleThreshold);
+
+			Logger.debug("mks.checkoutBatchSize = " + req.getParameter("mks.checkoutBatchSize"));
+			checkoutBatchSize = Integer.parseInt(Util.fixNull(req.getParameter("mks.checkoutBatchSize")));
+			Logger.debug("checkoutBatchSize = " + checkoutBatchSize);
+
+			Logger.debug("mks.memberCacheDir = " + req.getParameter("mks.memberCacheDir"));
+			memberCacheDir = Util.fixNull(req.getParameter("mks.memberCacheDir")).trim();
+
+			Logger.debug("mks.memberCacheSize = " + req.getParameter("mks.memberCacheSize"));
+			memberCacheSize = Integer.parseInt(Util.fixNull(req.getParameter("mks.memberCacheSize")));
+			Logger.debug("memberCacheSize = " + memberCacheSize);
+
+			Logger.debug("mks.masterCacheSize = " + req.getParameter("mks.masterCacheSize"));
+			masterCacheSize = Integer.parseInt(Util.fixNull(req.getParameter("mks.masterCacheSize")));
+			Logger.debug("masterCacheSize = " + masterCacheSize);
+
+			Logger.debug("mks.checksumUpdateBatchSize = " + req.getParameter("mks.checksumUpdateBatchSize"));
+			checksumUpdateBatchSize = Integer.parseInt(Util.fixNull(req.getParameter("mks.checksumUpdateBatchSize")));
+			Logger.debug("checksumUpdateBatchSize = " + checksumUpdateBatchSize);
+
+			Logger.debug("mks.maxConcurrentCommands = " + req.getParameter("mks.maxConcurrentCommands"));
+			maxConcurrentCommands = Integer.parseInt(Util.fixNull(req.getParameter("mks.maxConcurrentCommands")));
+			APICommandExecutor.setMaxConcurrentCommands(maxConcurrentCommands);
+			Logger.debug("maxConcurrentCommands = " + maxConcurrentCommands);
+
+			Logger.debug("mks.admissionConcurrency = " + req.getParameter("mks.admissionConcurrency"));
+			admissionConcurrency = Integer.parseInt(Util.fixNull(req.getParameter("mks.admissionConcurrency")));
+			Logger.debug("admissionConcurrency = " + admissionConcurrency);
+
+			Logger.debug("mks.admissionRate = " + req.getParameter("mks.admissionRate"));
+			admissionRate = Integer.parseInt(Util.fixNull(req.getParameter("mks.admissionRate")));
+			Logger.debug("admissionRate = " + admissionRate);
+
+			Logger.debug("mks.admissionOverrides = " + req.getParameter("mks.admissionOverrides"));
+			admissionOverrides = Util.fixNull(req.getParameter("mks.admissionOverrides"));
+			admissionController.configure(admissionConcurrency, admissionRate, admissionOverrides);
+
 			save();
             return true;
         }
@@ -1092,7 +1389,271 @@ public class IntegritySCM extends SCM implements Serializable
 	    }
 
 	    /**
-	     * Validates that the port number is numeric and within a valid range 
+	     * Returns the maximum number of idle API Sessions kept in the session pool
+	     * @return sessionPoolSize
+	     */
+	    public int getSessionPoolSize()
+	    {
+	    	return sessionPoolSize;
+	    }
+
+	    /**
+	     * Returns the number of minutes an idle API Session is kept in the session pool
+	     * @return sessionPoolIdleTimeout
+	     */
+	    public int getSessionPoolIdleTimeout()
+	    {
+	    	return sessionPoolIdleTimeout;
+	    }
+
+	    /**
+	     * Returns the number of checkouts after which a checkout's API Session is recycled
+	     * @return checkoutRecycleThreshold
+	     */
+	    public int getCheckoutRecycleThreshold()
+	    {
+	    	return checkoutRecycleThreshold;
+	    }
+
+	    /**
+	     * Sets the number of checkouts after which a checkout's API Session is recycled
+	     * A value of 0 recycles the session when the server's response times start to degrade
+	     * @param checkoutRecycleThreshold
+	     */
+	    public void setCheckoutRecycleThreshold(int checkoutRecycleThreshold)
+	    {
+	    	this.checkoutRecycleThreshold = checkoutRecycleThreshold;
+	    }
+
+	    /**
+	     * Returns the maximum number of members checked out with a single si projectco
+	     * @return checkoutBatchSize
+	     */
+	    public int getCheckoutBatchSize()
+	    {
+	    	return checkoutBatchSize;
+	    }
+
+	    /**
+	     * Sets the maximum number of members checked out with a single si projectco
+	     * A value of 0 or 1 checks out one member at a time
+	     * @param checkoutBatchSize
+	     */
+	    public void setCheckoutBatchSize(int checkoutBatchSize)
+	    {
+	    	this.checkoutBatchSize = checkoutBatchSize;
+	    }
+
+	    /**
+	     * Returns the member cache directory used on each build machine
+	     * @return memberCacheDir
+	     */
+	    public String getMemberCacheDir()
+	    {
+	    	return memberCacheDir;
+	    }
+
+	    /**
+	     * Sets the member cache directory used on each build machine
+	     * Relative paths are resolved against the parent of the workspace, an empty value disables the cache
+	     * @param memberCacheDir
+	     */
+	    public void setMemberCacheDir(String memberCacheDir)
+	    {
+	    	this.memberCacheDir = memberCacheDir;
+	    }
+
+	    /**
+	     * Returns the maximum size (in megabytes) of the member cache on each build machine
+	     * @return memberCacheSize
+	     */
+	    public int getMemberCacheSize()
+	    {
+	    	return memberCacheSize;
+	    }
+
+	    /**
+	     * Sets the maximum size (in megabytes) of the member cache on each build machine
+	     * @param memberCacheSize
+	     */
+	    public void setMemberCacheSize(int memberCacheSize)
+	    {
+	    	this.memberCacheSize = memberCacheSize;
+	    }
+
+	    /**
+	     * Returns the maximum size (in megabytes) of the revision cache on the master
+	     * @return masterCacheSize
+	     */
+	    public int getMasterCacheSize()
+	    {
+	    	return masterCacheSize;
+	    }
+
+	    /**
+	     * Sets the maximum size (in megabytes) of the revision cache on the master
+	     * A value of 0 disables the cache, so slaves fetch all revisions from the Integrity Server
+	     * @param masterCacheSize
+	     */
+	    public void setMasterCacheSize(int masterCacheSize)
+	    {
+	    	this.masterCacheSize = masterCacheSize;
+	    }
+
+	    /**
+	     * Returns the number of checksum updates sent to the project cache database at once
+	     * @return checksumUpdateBatchSize
+	     */
+	    public int getChecksumUpdateBatchSize()
+	    {
+	    	return checksumUpdateBatchSize;
+	    }
+
+	    /**
+	     * Sets the number of checksum updates sent to the project cache database at once
+	     * A value of 0 sends all updates of a checkout in a single batch
+	     * @param checksumUpdateBatchSize
+	     */
+	    public void setChecksumUpdateBatchSize(int checksumUpdateBatchSize)
+	    {
+	    	this.checksumUpdateBatchSize = checksumUpdateBatchSize;
+	    }
+
+	    /**
+	     * Returns the number of asynchronous commands allowed to run concurrently against a single server
+	     * @return maxConcurrentCommands
+	     */
+	    public int getMaxConcurrentCommands()
+	    {
+	    	return maxConcurrentCommands;
+	    }
+
+	    /**
+	     * Sets the number of asynchronous commands allowed to run concurrently against a single server
+	     * @param maxConcurrentCommands
+	     */
+	    public void setMaxConcurrentCommands(int maxConcurrentCommands)
+	    {
+	    	this.maxConcurrentCommands = maxConcurrentCommands;
+	    	APICommandExecutor.setMaxConcurrentCommands(maxConcurrentCommands);
+	    }
+
+	    /**
+	     * Returns the default maximum number of commands in flight per Integrity Server
+	     * @return admissionConcurrency
+	     */
+	    public int getAdmissionConcurrency()
+	    {
+	    	return admissionConcurrency;
+	    }
+
+	    /**
+	     * Sets the default maximum number of commands in flight per Integrity Server
+	     * @param admissionConcurrency
+	     */
+	    public void setAdmissionConcurrency(int admissionConcurrency)
+	    {
+	    	this.admissionConcurrency = admissionConcurrency;
+	    	admissionController.configure(admissionConcurrency, admissionRate, admissionOverrides);
+	    }
+
+	    /**
+	     * Returns the default maximum number of commands started per second per Integrity Server
+	     * @return admissionRate
+	     */
+	    public int getAdmissionRate()
+	    {
+	    	return admissionRate;
+	    }
+
+	    /**
+	     * Sets the default maximum number of commands started per second per Integrity Server
+	     * @param admissionRate
+	     */
+	    public void setAdmissionRate(int admissionRate)
+	    {
+	    	this.admissionRate = admissionRate;
+	    	admissionController.configure(admissionConcurrency, admissionRate, admissionOverrides);
+	    }
+
+	    /**
+	     * Returns the per-server admission control settings
+	     * @return admissionOverrides
+	     */
+	    public String getAdmissionOverrides()
+	    {
+	    	return admissionOverrides;
+	    }
+
+	    /**
+	     * Sets the per-server admission control settings, one 'host:port=concurrency,rate' entry per line
+	     * @param admissionOverrides
+	     */
+	    public void setAdmissionOverrides(String admissionOverrides)
+	    {
+	    	this.admissionOverrides = admissionOverrides;
+	    	admissionController.configure(admissionConcurrency, admissionRate, admissionOverrides);
+	    }
+
+	    /**
+	     * Returns the admission controller all commands from this master go through
+	     * @return admissionController
+	     */
+	    public APIAdmissionController getAdmissionController()
+	    {
+	    	return admissionController;
+	    }
+
+	    /**
+	     * Sets the maximum number of idle API Sessions kept in the session pool
+	     * @param sessionPoolSize
+	     */
+	    public void setSessionPoolSize(int sessionPoolSize)
+	    {
+	    	this.sessionPoolSize = sessionPoolSize;
+	    	sessionPool.setMaxSize(sessionPoolSize);
+	    }
+
+	    /**
+	     * Sets the number of minutes an idle API Session is kept in the session pool
+	     * @param sessionPoolIdleTimeout
+	     */
+	    public void setSessionPoolIdleTimeout(int sessionPoolIdleTimeout)
+	    {
+	    	this.sessionPoolIdleTimeout = sessionPoolIdleTimeout;
+	    	sessionPool.setIdleTimeout(sessionPoolIdleTimeout);
+	    }
+
+	    /**
+	     * Borrows an authenticated API Session from the session pool
+	     * @return An authenticated API Session
+	     * @throws APIException
+	     */
+	    public APISession borrowAPISession(String ipHost, int ipPort, String host, int port, String user, String password, boolean secure) throws APIException
+	    {
+	    	return sessionPool.borrowSession(ipHost, ipPort, host, port, user, password, secure);
+	    }
+
+	    /**
+	     * Returns an API Session obtained using borrowAPISession() to the session pool
+	     * @param api API Session
+	     */
+	    public void returnAPISession(APISession api)
+	    {
+	    	sessionPool.returnSession(api);
+	    }
+
+	    /**
+	     * Returns the API Session pool shared by all Integrity jobs and publishers
+	     * @return sessionPool
+	     */
+	    public APISessionPool getSessionPool()
+	    {
+	    	return sessionPool;
+	    }
+
+	    /**
+	     * Validates that the port number is numeric and within a valid range
 	     * @param value Integer value for Port or IP Port
 	     * @return
 	     */
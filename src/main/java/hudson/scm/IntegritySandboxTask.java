@@ -0,0 +1,262 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.mks.api.Command;
+import com.mks.api.FileOption;
+import com.mks.api.Option;
+import com.mks.api.response.APIException;
+import com.mks.api.response.Response;
+import com.mks.api.util.Base64;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
+
+/**
+ * Alternative to the IntegrityCheckoutTask that keeps the workspace as an Integrity Sandbox.
+ * The sandbox is created on the first build and re-targeted and resynchronized to the build's
+ * project configuration afterwards, so the server works out which files need to be updated
+ * instead of the plug-in fetching each changed member with a separate si projectco.
+ * The Integrity Client on the machine executing this task must be used as Integration Point,
+ * as sandboxes are registered with the client that created them.
+ */
+public class IntegritySandboxTask implements FileCallable<Boolean>
+{
+	private static final long serialVersionUID = -2746153813564862318L;
+	private final String configPath;
+	private final String projectName;
+	private final String alternateWorkspaceDir;
+	private final boolean restoreTimestamp;
+	private final String lineTerminator;
+	private final boolean cleanCopy;
+	private final BuildListener listener;
+	// API connection information
+	private String ipHostName;
+	private String hostName;
+	private int ipPort = 0;
+	private int port;
+	private boolean secure;
+	private String userName;
+	private String password;
+
+	/**
+	 * Creates a task that synchronizes the sandbox in the workspace with a project configuration
+	 * @param configPath Full configuration path of the project revision being built
+	 * @param projectName Server side path of the project, i.e. /path/to/project.pj
+	 * @param alternateWorkspaceDir Specifies an alternate location for the sandbox other than the default workspace
+	 * @param restoreTimestamp Toggles whether to use the current date/time or the original date/time for the members
+	 * @param lineTerminator Sets the line terminator for the working files (native, crlf, cr or lf)
+	 * @param cleanCopy Indicates whether or not the sandbox should be dropped and created from scratch
+	 * @param listener The Hudson build listener
+	 */
+	public IntegritySandboxTask(String configPath, String projectName, String alternateWorkspaceDir,
+									boolean restoreTimestamp, String lineTerminator, boolean cleanCopy, BuildListener listener)
+	{
+		this.configPath = configPath;
+		this.projectName = projectName;
+		this.alternateWorkspaceDir = alternateWorkspaceDir;
+		this.restoreTimestamp = restoreTimestamp;
+		this.lineTerminator = lineTerminator;
+		this.cleanCopy = cleanCopy;
+		this.listener = listener;
+		this.ipHostName = "";
+		this.ipPort = 0;
+		this.hostName = "";
+		this.port = 7001;
+		this.secure = false;
+		this.userName = "";
+		this.password = "";
+		Logger.debug("Integrity Sandbox Task Created!");
+	}
+
+	/**
+	 * Helper function to initialize all the variables needed to establish an APISession
+	 * @param ipHostName Integration Point Hostname
+	 * @param ipPort Integration Point Port
+	 * @param hostName Integrity Server Hostname
+	 * @param port Integrity Server Port
+	 * @param secure Toggles whether Integrity Server is SSL enabled
+	 * @param userName Username to connect to the Integrity Server
+	 * @param password Password for the Username connection to the Integrity Server
+	 */
+	public void initAPIVariables(String ipHostName, int ipPort, String hostName, int port, boolean secure, String userName, String password)
+	{
+		this.ipHostName = ipHostName;
+		this.ipPort = ipPort;
+		this.hostName = hostName;
+		this.port = port;
+		this.secure = secure;
+		this.userName = userName;
+		this.password = password;
+	}
+
+	/**
+	 * Returns the sandbox file, which has the same name as the project file
+	 * @param sandboxDir Root directory of the sandbox
+	 * @return
+	 */
+	private File getSandboxFile(File sandboxDir)
+	{
+		return new File(sandboxDir, IntegrityCMMember.getName(projectName));
+	}
+
+	/**
+	 * Executes a sandbox command and logs its outcome
+	 * @param api Integrity API Session
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @return
+	 * @throws APIException
+	 */
+	private Response run(APISession api, Command cmd) throws APIException
+	{
+		Response res = api.runCommand(cmd);
+		Logger.debug("Command: " + res.getCommandString() + " completed with exit code " + res.getExitCode());
+		return res;
+	}
+
+	/**
+	 * Drops the registration of the sandbox, leaving the files to be cleaned up by the caller
+	 * @param api Integrity API Session
+	 * @param sandboxFile Sandbox file
+	 * @throws APIException
+	 */
+	private void dropSandbox(APISession api, File sandboxFile) throws APIException
+	{
+		Command dropCMD = new Command(Command.SI, "dropsandbox");
+		dropCMD.addOption(new Option("delete", "none"));
+		dropCMD.addOption(new Option("yes"));
+		dropCMD.addSelection(sandboxFile.getAbsolutePath());
+		run(api, dropCMD);
+	}
+
+	/**
+	 * Creates a new sandbox for the project configuration
+	 * @param api Integrity API Session
+	 * @param sandboxDir Root directory of the sandbox
+	 * @throws APIException
+	 */
+	private void createSandbox(APISession api, File sandboxDir) throws APIException
+	{
+		Command createCMD = new Command(Command.SI, "createsandbox");
+		createCMD.addOption(new Option("project", configPath));
+		createCMD.addOption(new Option("populate"));
+		createCMD.addOption(new Option("recurse"));
+		createCMD.addOption(new Option("lineTerminator", lineTerminator));
+		createCMD.addOption(new Option("nolock"));
+		createCMD.addOption(new Option("yes"));
+		createCMD.addSelection(sandboxDir.getAbsolutePath());
+		run(api, createCMD);
+	}
+
+	/**
+	 * Points an existing sandbox at the project configuration being built (i.e. a new checkpoint)
+	 * @param api Integrity API Session
+	 * @param sandboxFile Sandbox file
+	 * @throws APIException
+	 */
+	private void retargetSandbox(APISession api, File sandboxFile) throws APIException
+	{
+		Command retargetCMD = new Command(Command.SI, "retargetsandbox");
+		retargetCMD.addOption(new Option("project", configPath));
+		retargetCMD.addOption(new FileOption("sandbox", sandboxFile));
+		run(api, retargetCMD);
+	}
+
+	/**
+	 * Resynchronizes all members of the sandbox, overwriting any files changed in the workspace
+	 * @param api Integrity API Session
+	 * @param sandboxFile Sandbox file
+	 * @throws APIException
+	 */
+	private void resyncSandbox(APISession api, File sandboxFile) throws APIException
+	{
+		Command resyncCMD = new Command(Command.SI, "resync");
+		resyncCMD.addOption(new FileOption("sandbox", sandboxFile));
+		resyncCMD.addOption(new Option("recurse"));
+		resyncCMD.addOption(new Option("overwriteChanged"));
+		resyncCMD.addOption(new Option("overwriteDeferred"));
+		resyncCMD.addOption(new Option("populate"));
+		resyncCMD.addOption(new Option(restoreTimestamp ? "restoreTimestamp" : "norestoreTimestamp"));
+		resyncCMD.addOption(new Option("lineTerminator", lineTerminator));
+		resyncCMD.addOption(new Option("nolock"));
+		resyncCMD.addOption(new Option("yes"));
+		run(api, resyncCMD);
+	}
+
+	/**
+	 * This task creates or resynchronizes the sandbox on remote machines
+	 */
+	public Boolean invoke(File workspaceFile, VirtualChannel channel) throws IOException
+	{
+		// Figure out where the sandbox should live
+		File checkOutDir = (null != alternateWorkspaceDir && alternateWorkspaceDir.length() > 0) ? new File(alternateWorkspaceDir) : workspaceFile;
+		File sandboxDir = checkOutDir.isAbsolute() ? checkOutDir : new File(workspaceFile.getAbsolutePath() + IntegritySCM.FS + checkOutDir.getPath());
+		FilePath workspace = new FilePath(sandboxDir);
+		File sandboxFile = getSandboxFile(sandboxDir);
+		listener.getLogger().println("Sandbox directory is " + workspace);
+
+		APISession api = null;
+		try
+		{
+			Logger.debug("Creating Integrity API Session...");
+			api = new APISession(ipHostName, ipPort, hostName, port, userName, Base64.decode(password), secure);
+
+			if( cleanCopy )
+			{
+				listener.getLogger().println("A clean copy is requested; dropping sandbox and deleting contents of " + workspace);
+				if( sandboxFile.isFile() )
+				{
+					dropSandbox(api, sandboxFile);
+				}
+				workspace.deleteContents();
+			}
+
+			if( sandboxFile.isFile() )
+			{
+				listener.getLogger().println("Resynchronizing sandbox " + sandboxFile.getAbsolutePath() + " with " + configPath);
+				retargetSandbox(api, sandboxFile);
+				resyncSandbox(api, sandboxFile);
+			}
+			else
+			{
+				listener.getLogger().println("Creating sandbox for " + configPath + " in " + workspace);
+				sandboxDir.mkdirs();
+				createSandbox(api, sandboxDir);
+			}
+			listener.getLogger().println("Successfully synchronized sandbox " + sandboxFile.getAbsolutePath() + "!");
+		}
+		catch( APIException aex )
+		{
+			Logger.error("API Exception caught...");
+			listener.getLogger().println("An API Exception was caught!");
+			ExceptionHandler eh = new ExceptionHandler(aex);
+			Logger.error(eh.getMessage());
+			listener.getLogger().println(eh.getMessage());
+			Logger.debug(eh.getCommand() + " returned exit code " + eh.getExitCode());
+			listener.getLogger().println(eh.getCommand() + " returned exit code " + eh.getExitCode());
+			Logger.fatal(aex);
+			return false;
+		}
+		catch( InterruptedException iex )
+		{
+			Logger.error("Interrupted Exception caught...");
+			listener.getLogger().println("An Interrupted Exception was caught!");
+			Logger.error(iex.getMessage());
+			listener.getLogger().println(iex.getMessage());
+			listener.getLogger().println("Failed to clean up sandbox (" + workspace + ") contents!");
+			return false;
+		}
+		finally
+		{
+			if( null != api )
+			{
+				api.Terminate();
+			}
+		}
+
+		return true;
+	}
+}
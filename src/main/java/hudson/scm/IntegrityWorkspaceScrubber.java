@@ -0,0 +1,257 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.Util;
+
+/**
+ * Deletes the files in a checkout directory that don't belong to the Integrity SCM project, i.e.
+ * the output of previous builds, without touching the members.  The members and folders of the
+ * project are kept in a prefix tree of path names; the checkout directory is walked on a few
+ * threads in parallel, one task per folder, and anything not in the tree is deleted.  Untracked
+ * folders are deleted as a whole without being walked.
+ */
+public class IntegrityWorkspaceScrubber
+{
+	// Number of threads walking the workspace; metadata operations on network file systems are latency bound
+	private static final int SCRUB_THREADS = 4;
+	// Windows file systems don't distinguish between upper and lower case names
+	private static final boolean IGNORE_CASE = (File.separatorChar == '\\');
+
+	private final File checkOutDir;
+	private final Node root;
+	private final List<File> failed;
+	private final AtomicInteger deletedCount;
+	private final AtomicInteger scannedCount;
+	// Number of folders still to be walked
+	private int pending;
+	private Throwable failure;
+
+	/**
+	 * Creates the scrubber for a checkout directory
+	 * @param checkOutDir Checkout directory
+	 */
+	public IntegrityWorkspaceScrubber(File checkOutDir)
+	{
+		this.checkOutDir = checkOutDir;
+		this.root = new Node();
+		this.failed = Collections.synchronizedList(new ArrayList<File>());
+		this.deletedCount = new AtomicInteger(0);
+		this.scannedCount = new AtomicInteger(0);
+	}
+
+	/**
+	 * Keeps a member of the project
+	 * @param relativeFile Path of the member relative to the checkout directory
+	 */
+	public synchronized void addFile(String relativeFile)
+	{
+		insert(relativeFile).file = true;
+	}
+
+	/**
+	 * Keeps a folder of the project, even if it is empty
+	 * @param relativeDir Path of the folder relative to the checkout directory
+	 */
+	public synchronized void addDirectory(String relativeDir)
+	{
+		insert(relativeDir);
+	}
+
+	/**
+	 * Adds the nodes of a path to the tree
+	 */
+	private Node insert(String relativePath)
+	{
+		Node node = root;
+		for( String name : relativePath.split("[/\\\\]") )
+		{
+			if( name.length() > 0 )
+			{
+				node = node.getOrCreate(getKey(name));
+			}
+		}
+		return node;
+	}
+
+	private static String getKey(String name)
+	{
+		return (IGNORE_CASE ? name.toLowerCase() : name);
+	}
+
+	/**
+	 * Walks the checkout directory and deletes all files and folders that don't belong to the project
+	 * @param name Name of the scrubber's threads
+	 * @return The files and folders that could not be deleted
+	 * @throws IOException if the checkout directory could not be walked
+	 * @throws InterruptedException
+	 */
+	public List<File> scrub(final String name) throws IOException, InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(SCRUB_THREADS, new ThreadFactory()
+		{
+			private int count = 0;
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try
+		{
+			submit(pool, checkOutDir, root);
+			synchronized(this)
+			{
+				while( pending > 0 && null == failure )
+				{
+					wait();
+				}
+				if( null != failure )
+				{
+					IOException ioe = new IOException("Failed to scrub " + checkOutDir.getAbsolutePath() + ": " + failure);
+					ioe.initCause(failure);
+					throw ioe;
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		return new ArrayList<File>(failed);
+	}
+
+	/**
+	 * Walks a tracked folder in the background
+	 */
+	private void submit(final ExecutorService pool, final File dir, final Node node)
+	{
+		synchronized(this){ pending++; }
+		pool.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					scrubDirectory(pool, dir, node);
+				}
+				catch(Throwable t)
+				{
+					synchronized(IntegrityWorkspaceScrubber.this){ failure = t; }
+				}
+				finally
+				{
+					synchronized(IntegrityWorkspaceScrubber.this)
+					{
+						pending--;
+						IntegrityWorkspaceScrubber.this.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Deletes the untracked entries of a tracked folder and walks its tracked sub-folders
+	 */
+	private void scrubDirectory(ExecutorService pool, File dir, Node node)
+	{
+		File[] entries = dir.listFiles();
+		if( null == entries )
+		{
+			return;
+		}
+		for( File entry : entries )
+		{
+			scannedCount.incrementAndGet();
+			Node child = node.get(getKey(entry.getName()));
+			if( null == child )
+			{
+				Logger.debug("Deleting untracked workspace " + (entry.isDirectory() ? "folder " : "file ") + entry.getAbsolutePath());
+				if( entry.isDirectory() )
+				{
+					try
+					{
+						Util.deleteRecursive(entry);
+					}
+					catch(IOException ioe)
+					{
+						Logger.warn("Failed to delete " + entry.getAbsolutePath() + ": " + ioe.getMessage());
+						failed.add(entry);
+						continue;
+					}
+				}
+				else if( ! entry.delete() )
+				{
+					failed.add(entry);
+					continue;
+				}
+				deletedCount.incrementAndGet();
+			}
+			else if( ! child.file && entry.isDirectory() )
+			{
+				submit(pool, entry, child);
+			}
+			// Members are left alone, even if a folder took the place of a file or the other way round
+		}
+	}
+
+	/**
+	 * Returns the number of files and folders found in tracked folders
+	 * @return
+	 */
+	public int getScannedCount()
+	{
+		return scannedCount.get();
+	}
+
+	/**
+	 * Returns the number of untracked files and folders deleted
+	 * @return
+	 */
+	public int getDeletedCount()
+	{
+		return deletedCount.get();
+	}
+
+	/**
+	 * Node of the prefix tree; each node is a name within its parent's folder
+	 */
+	private static final class Node
+	{
+		private Map<String, Node> children;
+		private boolean file;
+
+		private Node get(String name)
+		{
+			return (null == children ? null : children.get(name));
+		}
+
+		private Node getOrCreate(String name)
+		{
+			if( null == children )
+			{
+				children = new HashMap<String, Node>();
+			}
+			Node child = children.get(name);
+			if( null == child )
+			{
+				child = new Node();
+				children.put(name, child);
+			}
+			return child;
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Applies the metadata changes of a checkout to the workspace (directories and deletes of dropped
+ * members) on a few background threads, so they overlap with the members being fetched from the
+ * Integrity Server.  Only the leaf directories of the project are created, as creating a leaf
+ * creates its parents; deletes are applied in batches.  On file systems that fold case, paths are
+ * compared without regard to case, so a delayed delete never hits a file fetched under a name
+ * differing only in case (i.e. after a member was renamed from Foo.java to foo.java).
+ */
+public class IntegrityWorkspaceStage
+{
+	// Number of threads applying the changes; metadata operations on network file systems are latency bound
+	private static final int STAGE_THREADS = 4;
+	// Number of dropped files deleted by a single task
+	private static final int DELETE_BATCH_SIZE = 200;
+
+	private final ExecutorService pool;
+	private final List<Future<List<File>>> pending;
+	// Directories known to exist, so each one is only checked once
+	private final ConcurrentHashMap<File, Boolean> directories;
+	private List<File> deletes;
+	// Indicates whether the checkout directory's file system folds case
+	private final boolean ignoreCase;
+	// Workspace files fetched so far, keyed by getKey()
+	private final Map<String, File> fetched;
+	// Deletes queued or submitted but not yet started, keyed by getKey()
+	private final Map<String, List<File>> queuedDeletes;
+	// Keys of the files currently being deleted
+	private final Set<String> deleting;
+	// Dropped files that could not be deleted outside of the background tasks
+	private final List<File> failedDeletes;
+
+	/**
+	 * Creates the stage for a checkout
+	 * @param name Name of the stage's threads
+	 * @param checkOutDir Checkout directory
+	 */
+	public IntegrityWorkspaceStage(final String name, File checkOutDir)
+	{
+		this.ignoreCase = ! isCaseSensitive(checkOutDir);
+		this.pending = Collections.synchronizedList(new ArrayList<Future<List<File>>>());
+		this.directories = new ConcurrentHashMap<File, Boolean>();
+		this.deletes = new ArrayList<File>();
+		this.fetched = new HashMap<String, File>();
+		this.queuedDeletes = new HashMap<String, List<File>>();
+		this.deleting = new HashSet<String>();
+		this.failedDeletes = Collections.synchronizedList(new ArrayList<File>());
+		this.pool = Executors.newFixedThreadPool(STAGE_THREADS, new ThreadFactory()
+		{
+			private int count = 0;
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Determines whether the file system of a checkout directory distinguishes upper and lower case names
+	 * The probe file is created next to the checkout directory (i.e. workspace@integrity), so it never shows up in the workspace
+	 */
+	private static boolean isCaseSensitive(File checkOutDir)
+	{
+		File probeDir = new File(checkOutDir.getAbsolutePath() + "@integrity");
+		try
+		{
+			probeDir.mkdirs();
+			File probe = File.createTempFile("CaseProbe", ".tmp", probeDir);
+			try
+			{
+				return ! new File(probeDir, probe.getName().toLowerCase()).exists();
+			}
+			finally
+			{
+				probe.delete();
+			}
+		}
+		catch(IOException ioe)
+		{
+			// Assume the platform's default
+			Logger.debug("Failed to probe case sensitivity of " + probeDir.getAbsolutePath() + ": " + ioe.getMessage());
+			return (File.separatorChar != '\\');
+		}
+	}
+
+	/**
+	 * Creates the directories of the project in the background
+	 * @param workspace Checkout directory
+	 * @param dirList A list of all the unique directories in the Integrity SCM project
+	 */
+	public void createDirectories(File workspace, List<String> dirList)
+	{
+		// Every directory that is the parent of another one is created along with its leaves
+		Set<File> parents = new HashSet<File>();
+		List<File> dirs = new ArrayList<File>(dirList.size());
+		for( String folder : dirList )
+		{
+			File dir = new File(workspace + folder);
+			dirs.add(dir);
+			File parent = dir.getParentFile();
+			while( null != parent && parents.add(parent) )
+			{
+				parent = parent.getParentFile();
+			}
+		}
+
+		List<File> leaves = new ArrayList<File>();
+		for( File dir : dirs )
+		{
+			if( ! parents.contains(dir) )
+			{
+				leaves.add(dir);
+			}
+		}
+		Logger.debug("Creating " + leaves.size() + " leaf folders for " + dirs.size() + " folders in " + workspace);
+
+		// Split the leaves evenly across the threads
+		int chunk = (leaves.size() + STAGE_THREADS - 1) / STAGE_THREADS;
+		for( int i = 0; i < leaves.size(); i += chunk )
+		{
+			final List<File> batch = leaves.subList(i, Math.min(i + chunk, leaves.size()));
+			submit(new Callable<List<File>>()
+			{
+				public List<File> call()
+				{
+					for( File dir : batch )
+					{
+						if( ! ensureDirectory(dir) )
+						{
+							Logger.warn("Failed to create folder: " + dir.getAbsolutePath());
+						}
+					}
+					return Collections.emptyList();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Makes sure the directory of a workspace file exists before it is fetched and that no pending
+	 * delete can hit the file; deletes of the same path (ignoring case where the file system does) are applied right away
+	 * @param targetFile Workspace file
+	 */
+	public void ensureParent(File targetFile)
+	{
+		List<File> colliding;
+		String key = getKey(targetFile);
+		synchronized(this)
+		{
+			fetched.put(key, targetFile);
+			colliding = queuedDeletes.remove(key);
+			boolean interrupted = false;
+			while( deleting.contains(key) )
+			{
+				try
+				{
+					wait();
+				}
+				catch(InterruptedException iex)
+				{
+					interrupted = true;
+				}
+			}
+			if( interrupted )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// The file isn't fetched yet, so deleting the old one first is safe on any file system
+		for( int i = 0; null != colliding && i < colliding.size(); i++ )
+		{
+			File file = colliding.get(i);
+			Logger.debug("Deleting " + file.getAbsolutePath() + " before fetching " + targetFile.getAbsolutePath());
+			if( file.exists() && ! file.delete() )
+			{
+				failedDeletes.add(file);
+			}
+		}
+
+		File dir = targetFile.getParentFile();
+		if( null != dir && ! ensureDirectory(dir) )
+		{
+			Logger.warn("Failed to create folder: " + dir.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Creates a directory unless it is already known to exist
+	 */
+	private boolean ensureDirectory(File dir)
+	{
+		if( directories.containsKey(dir) )
+		{
+			return true;
+		}
+		// Another thread may create the same directory concurrently
+		if( dir.mkdirs() || dir.isDirectory() )
+		{
+			File known = dir;
+			while( null != known && null == directories.putIfAbsent(known, Boolean.TRUE) )
+			{
+				known = known.getParentFile();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Queues a dropped workspace file for deletion
+	 * @param targetFile Workspace file
+	 */
+	public void delete(File targetFile)
+	{
+		List<File> batch = null;
+		String key = getKey(targetFile);
+		File fetchedFile;
+		synchronized(this)
+		{
+			// A path that only differs in case from a fetched one is the same file where case is folded
+			fetchedFile = fetched.get(key);
+			if( null == fetchedFile )
+			{
+				List<File> queued = queuedDeletes.get(key);
+				if( null == queued )
+				{
+					queued = new ArrayList<File>(1);
+					queuedDeletes.put(key, queued);
+				}
+				queued.add(targetFile);
+				deletes.add(targetFile);
+				if( deletes.size() >= DELETE_BATCH_SIZE )
+				{
+					batch = deletes;
+					deletes = new ArrayList<File>();
+				}
+			}
+		}
+
+		if( null != fetchedFile )
+		{
+			Logger.debug("Not deleting " + targetFile.getAbsolutePath() + " as it is the same file as the fetched " + fetchedFile.getAbsolutePath());
+		}
+		else if( null != batch )
+		{
+			submitDeletes(batch);
+		}
+	}
+
+	/**
+	 * Returns the key of a workspace file, i.e. its absolute path, case folded if the file system ignores case
+	 */
+	private String getKey(File file)
+	{
+		return (ignoreCase ? file.getAbsolutePath().toLowerCase() : file.getAbsolutePath());
+	}
+
+	/**
+	 * Deletes a batch of files in the background
+	 */
+	private void submitDeletes(final List<File> batch)
+	{
+		submit(new Callable<List<File>>()
+		{
+			public List<File> call()
+			{
+				List<File> failed = new ArrayList<File>();
+				for( File file : batch )
+				{
+					// Deletes taken over by ensureParent() were already applied
+					String key = getKey(file);
+					synchronized(IntegrityWorkspaceStage.this)
+					{
+						List<File> queued = queuedDeletes.get(key);
+						if( null == queued || ! queued.remove(file) )
+						{
+							continue;
+						}
+						if( queued.isEmpty() )
+						{
+							queuedDeletes.remove(key);
+						}
+						deleting.add(key);
+					}
+
+					try
+					{
+						if( file.exists() && ! file.delete() )
+						{
+							failed.add(file);
+						}
+					}
+					finally
+					{
+						synchronized(IntegrityWorkspaceStage.this)
+						{
+							deleting.remove(key);
+							IntegrityWorkspaceStage.this.notifyAll();
+						}
+					}
+				}
+				return failed;
+			}
+		});
+	}
+
+	/**
+	 * Submits a task to the stage's threads
+	 */
+	private void submit(Callable<List<File>> task)
+	{
+		pending.add(pool.submit(task));
+	}
+
+	/**
+	 * Waits for all directories and deletes to be applied and shuts the stage down
+	 * @return The dropped files that could not be deleted
+	 * @throws IOException if one of the changes could not be applied
+	 * @throws InterruptedException
+	 */
+	public List<File> finish() throws IOException, InterruptedException
+	{
+		List<File> batch;
+		synchronized(this)
+		{
+			batch = deletes;
+			deletes = new ArrayList<File>();
+		}
+		if( batch.size() > 0 )
+		{
+			submitDeletes(batch);
+		}
+
+		List<File> failed = new ArrayList<File>(failedDeletes);
+		Throwable failure = null;
+		try
+		{
+			synchronized(pending)
+			{
+				for( Future<List<File>> future : pending )
+				{
+					try
+					{
+						failed.addAll(future.get());
+					}
+					catch(ExecutionException eex)
+					{
+						Logger.error("Failed to update workspace: " + eex.getCause());
+						failure = eex.getCause();
+					}
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		if( null != failure )
+		{
+			IOException ioe = new IOException("Failed to update workspace: " + failure);
+			ioe.initCause(failure);
+			throw ioe;
+		}
+		return failed;
+	}
+
+	/**
+	 * Stops the stage without waiting for pending changes, i.e. after the checkout failed
+	 */
+	public void abort()
+	{
+		pool.shutdownNow();
+	}
+}
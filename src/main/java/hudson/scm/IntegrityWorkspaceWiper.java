@@ -0,0 +1,110 @@
+package hudson.scm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import hudson.Util;
+
+/**
+ * Wipes a checkout directory for a clean copy without waiting for its contents to be deleted.
+ * The directory is renamed into a trash folder next to it (i.e. workspace@integrity/trash) in
+ * a single step, an empty directory takes its place, and the old tree is deleted on a background
+ * thread while the checkout populates the new one.  Trees left behind by a previous JVM are
+ * picked up by the next wipe.
+ */
+public class IntegrityWorkspaceWiper
+{
+	private static final String TRASH_DIR = "trash";
+	// Deletes are serialized, so several wipes don't compete for the disk with each other
+	private static final ExecutorService deleter = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "Integrity Workspace Wiper");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+	// Trash entries already queued for deletion in this JVM
+	private static final Set<File> queued = new HashSet<File>();
+
+	/**
+	 * Moves the contents of a checkout directory out of the way and deletes them in the background
+	 * @param checkOutDir Checkout directory
+	 * @return false if the directory could not be renamed, so it needs to be wiped in place
+	 */
+	public static boolean wipe(File checkOutDir)
+	{
+		File dir = checkOutDir.getAbsoluteFile();
+		if( ! dir.isDirectory() )
+		{
+			return dir.mkdirs();
+		}
+
+		File trashDir = new File(new File(dir.getPath() + "@integrity"), TRASH_DIR);
+		File trash = new File(trashDir, dir.getName() + "." + System.currentTimeMillis());
+		trashDir.mkdirs();
+		// A rename only succeeds within the same file system and if no file is held open (i.e. on Windows)
+		if( ! dir.renameTo(trash) )
+		{
+			Logger.debug("Failed to move " + dir + " to " + trash + ", wiping it in place");
+			return false;
+		}
+		if( ! dir.mkdirs() && ! dir.isDirectory() )
+		{
+			Logger.warn("Failed to re-create " + dir + " after moving it to " + trash);
+			return false;
+		}
+
+		File[] entries = trashDir.listFiles();
+		for( int i = 0; null != entries && i < entries.length; i++ )
+		{
+			delete(entries[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Queues a trash entry for deletion, unless it is already queued
+	 */
+	private static void delete(final File trash)
+	{
+		synchronized(queued)
+		{
+			if( ! queued.add(trash) )
+			{
+				return;
+			}
+		}
+
+		deleter.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					long start = System.currentTimeMillis();
+					Util.deleteRecursive(trash);
+					Logger.debug("Deleted " + trash + " in " + (System.currentTimeMillis() - start) + " ms");
+				}
+				catch(IOException ioe)
+				{
+					Logger.warn("Failed to delete " + trash + ": " + ioe.getMessage());
+				}
+				finally
+				{
+					synchronized(queued)
+					{
+						queued.remove(trash);
+					}
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,749 @@
+package hudson.scm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+
+import com.mks.api.Command;
+import com.mks.api.Option;
+import com.mks.api.OptionList;
+import com.mks.api.SelectionList;
+import com.mks.api.response.APIException;
+import com.mks.api.response.Field;
+import com.mks.api.response.Item;
+import com.mks.api.response.Response;
+import com.mks.api.response.Result;
+import com.mks.api.response.WorkItem;
+import com.mks.api.response.WorkItemIterator;
+import com.mks.api.si.SIModelTypeName;
+
+/**
+ * A stand-in for an Integrity Server that serves a single project from a local directory, so
+ * the checkout, polling and change log code paths can be benchmarked and tested without a server.
+ * It is enabled by pointing the system property hudson.scm.APISession.localServer at a directory
+ * (on the master and on any slave performing checkouts) that contains:
+ * <ul>
+ * <li><b>integrity.properties</b> (optional) with project.name, project.type, project.revision,
+ *     project.lastCheckpoint (milliseconds), latency (milliseconds per command) and issues
+ *     (comma separated item IDs returned by 'im issues')</li>
+ * <li><b>members.txt</b> (optional) listing one member per line as
+ *     relativePath&lt;TAB&gt;revision&lt;TAB&gt;author&lt;TAB&gt;timestamp&lt;TAB&gt;description</li>
+ * <li><b>files/</b> containing the working file for each member; without a members.txt every
+ *     file found here is served as revision 1.1 of a member</li>
+ * </ul>
+ * Supported commands are si projectinfo, viewproject, projectco, revisioninfo, checkpoint and
+ * addprojectlabel, im issues and editissue, and api ping.  Files are checked out byte for byte,
+ * i.e. the lineTerminator option is not applied.
+ */
+public class LocalIntegrityTransport implements APITransport
+{
+	// System property overriding the latency configured in integrity.properties
+	public static final String LATENCY_PROPERTY = LocalIntegrityTransport.class.getName() + ".latency";
+	private static final String DEFAULT_PROJECT = "/LocalProject/project.pj";
+	// Checkpoints are only kept in memory, so every JVM starts again at revision 1.2
+	private static final Map<File, Integer> checkpoints = new HashMap<File, Integer>();
+
+	private final File root;
+	private final String userName;
+	private Properties settings;
+	private long settingsModified;
+	private TreeMap<String, String[]> members;
+	private long membersModified;
+
+	/**
+	 * Exception thrown for a command that failed with a response, like the errors reported by a server
+	 */
+	private static class CommandFailedException extends APIException
+	{
+		private static final long serialVersionUID = 2718406355021398372L;
+		private final transient Response response;
+
+		public CommandFailedException(String message, Response response)
+		{
+			super(message);
+			this.response = response;
+		}
+
+		@Override
+		public Response getResponse()
+		{
+			return response;
+		}
+	}
+
+	/**
+	 * Creates a transport serving the project found in the specified directory
+	 * @param root Directory containing integrity.properties, members.txt and files/
+	 * @param userName User executing the commands, reported as author when no members.txt is present
+	 * @throws APIException if the directory does not exist
+	 */
+	public LocalIntegrityTransport(File root, String userName) throws APIException
+	{
+		if( ! root.isDirectory() )
+		{
+			throw new APIException("Local Integrity stand-in directory " + root.getAbsolutePath() + " does not exist!");
+		}
+		this.root = root;
+		this.userName = userName;
+		Logger.debug("Using local Integrity stand-in at " + root.getAbsolutePath());
+	}
+
+	public Response execute(Command cmd, String impersonateUser) throws APIException
+	{
+		simulateLatency();
+		String name = cmd.getApp() + " " + cmd.getCommandName();
+		if( name.equals("api ping") || name.equals("si addprojectlabel") || name.equals("im editissue") )
+		{
+			return response(cmd, new ArrayList<WorkItem>());
+		}
+		else if( name.equals("si projectinfo") )
+		{
+			return projectInfo(cmd);
+		}
+		else if( name.equals("si viewproject") )
+		{
+			return viewProject(cmd);
+		}
+		else if( name.equals("si projectco") )
+		{
+			return projectCheckout(cmd);
+		}
+		else if( name.equals("si revisioninfo") )
+		{
+			return revisionInfo(cmd);
+		}
+		else if( name.equals("si checkpoint") )
+		{
+			return checkpoint(cmd);
+		}
+		else if( name.equals("im issues") )
+		{
+			return issues(cmd);
+		}
+		throw new APIException("Command '" + name + "' is not supported by the local Integrity stand-in!");
+	}
+
+	public Response executeWithInterim(Command cmd) throws APIException
+	{
+		return execute(cmd, "");
+	}
+
+	public void releaseInterim()
+	{
+		// Responses are always complete, so there is nothing to release
+	}
+
+	public void release()
+	{
+		Logger.debug("Released local Integrity stand-in at " + root.getAbsolutePath());
+	}
+
+	/**
+	 * Delays the command by the configured latency
+	 * @throws APIException if interrupted
+	 */
+	private void simulateLatency() throws APIException
+	{
+		String latency = System.getProperty(LATENCY_PROPERTY, getSettings().getProperty("latency", "0"));
+		try
+		{
+			long millis = Long.parseLong(latency.trim());
+			if( millis > 0 )
+			{
+				Thread.sleep(millis);
+			}
+		}
+		catch(NumberFormatException nfe)
+		{
+			Logger.warn("Ignoring invalid local Integrity stand-in latency: " + latency);
+		}
+		catch(InterruptedException iex)
+		{
+			Thread.currentThread().interrupt();
+			throw new APIException("Interrupted while executing command against the local Integrity stand-in!");
+		}
+	}
+
+	/**
+	 * Returns the contents of integrity.properties, reloading it when it changes
+	 * @return
+	 */
+	private synchronized Properties getSettings()
+	{
+		File file = new File(root, "integrity.properties");
+		if( null == settings || file.lastModified() != settingsModified )
+		{
+			settings = new Properties();
+			settingsModified = file.lastModified();
+			if( file.isFile() )
+			{
+				InputStream is = null;
+				try
+				{
+					is = new FileInputStream(file);
+					settings.load(is);
+				}
+				catch(IOException ioe)
+				{
+					Logger.error("Failed to read " + file.getAbsolutePath() + ": " + ioe.getMessage());
+				}
+				finally
+				{
+					IOUtils.closeQuietly(is);
+				}
+			}
+		}
+		return settings;
+	}
+
+	/**
+	 * Returns the project name, i.e. /LocalProject/project.pj
+	 * @return
+	 */
+	private String getProjectName()
+	{
+		return getSettings().getProperty("project.name", DEFAULT_PROJECT);
+	}
+
+	/**
+	 * Returns the directory that all member names are relative to
+	 * @return
+	 */
+	private String getProjectRoot()
+	{
+		String projectName = getProjectName();
+		return projectName.substring(0, projectName.lastIndexOf('/'));
+	}
+
+	/**
+	 * Returns the members of the project keyed by their relative path
+	 * Each entry contains the revision, author, timestamp and description of the member
+	 * @param rescan Forces the files/ directory to be scanned again when there is no members.txt
+	 * @return
+	 * @throws APIException
+	 */
+	private synchronized TreeMap<String, String[]> getMembers(boolean rescan) throws APIException
+	{
+		File file = new File(root, "members.txt");
+		if( file.isFile() )
+		{
+			if( null == members || file.lastModified() != membersModified )
+			{
+				members = readMembers(file);
+				membersModified = file.lastModified();
+			}
+		}
+		else if( null == members || rescan || membersModified != 0 )
+		{
+			members = new TreeMap<String, String[]>();
+			membersModified = 0;
+			scanFiles(new File(root, "files"), "", members);
+		}
+		return members;
+	}
+
+	/**
+	 * Reads the member metadata file
+	 * @param file members.txt
+	 * @return
+	 * @throws APIException
+	 */
+	private TreeMap<String, String[]> readMembers(File file) throws APIException
+	{
+		TreeMap<String, String[]> result = new TreeMap<String, String[]>();
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;
+			while( null != (line = reader.readLine()) )
+			{
+				if( line.trim().length() == 0 || line.startsWith("#") )
+				{
+					continue;
+				}
+				String[] columns = line.split("\t", 5);
+				String relativePath = columns[0].trim().replace('\\', '/');
+				result.put(relativePath, new String[] {
+								(columns.length > 1 ? columns[1].trim() : "1.1"),
+								(columns.length > 2 ? columns[2].trim() : userName),
+								(columns.length > 3 ? columns[3].trim() : String.valueOf(new File(new File(root, "files"), relativePath).lastModified())),
+								(columns.length > 4 ? columns[4] : "")});
+			}
+			return result;
+		}
+		catch(IOException ioe)
+		{
+			throw new APIException(ioe);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Recursively adds every file below a directory as revision 1.1 of a member
+	 */
+	private void scanFiles(File dir, String relativeDir, TreeMap<String, String[]> result)
+	{
+		File[] files = dir.listFiles();
+		if( null == files )
+		{
+			return;
+		}
+		for( File f : files )
+		{
+			String relativePath = relativeDir + f.getName();
+			if( f.isDirectory() )
+			{
+				scanFiles(f, relativePath + "/", result);
+			}
+			else
+			{
+				result.put(relativePath, new String[] {"1.1", userName, String.valueOf(f.lastModified()), ""});
+			}
+		}
+	}
+
+	/**
+	 * Returns the relative path of a member from its member ID
+	 */
+	private String getRelativePath(String memberID)
+	{
+		String projectRoot = getProjectRoot() + "/";
+		return (memberID.startsWith(projectRoot) ? memberID.substring(projectRoot.length()) : memberID);
+	}
+
+	/**
+	 * Returns the first selection of a command
+	 * @throws APIException if the command has no selection
+	 */
+	private static String getSelection(Command cmd) throws APIException
+	{
+		SelectionList selections = cmd.getSelectionList();
+		if( null == selections || selections.size() == 0 )
+		{
+			throw new APIException(cmd.getApp() + " " + cmd.getCommandName() + " requires a selection!");
+		}
+		return selections.getSelection(0);
+	}
+
+	/**
+	 * Returns the value of a command option or null if the option is not present
+	 */
+	private static String getOption(Command cmd, String name)
+	{
+		OptionList options = cmd.getOptionList();
+		if( null != options && options.hasOption(name) )
+		{
+			Option option = options.getOption(name);
+			return (null == option ? null : option.getValue());
+		}
+		return null;
+	}
+
+	private Response projectInfo(Command cmd)
+	{
+		Properties props = getSettings();
+		Map<String, Field> fields = new HashMap<String, Field>();
+		fields.put("projectName", field("projectName", getProjectName()));
+		fields.put("fullConfigSyntax", field("fullConfigSyntax", getProjectName()));
+		fields.put("projectType", field("projectType", props.getProperty("project.type", "Normal")));
+		fields.put("revision", field("revision", item(props.getProperty("project.revision", "1.1"), SIModelTypeName.PROJECT)));
+		fields.put("lastCheckpoint", field("lastCheckpoint", new Date(Long.parseLong(
+										props.getProperty("project.lastCheckpoint", String.valueOf(root.lastModified())).trim()))));
+		List<WorkItem> workItems = new ArrayList<WorkItem>();
+		workItems.add(workItem(getProjectName(), SIModelTypeName.PROJECT, fields, null));
+		return response(cmd, workItems);
+	}
+
+	private Response viewProject(Command cmd) throws APIException
+	{
+		String projectName = getProjectName();
+		String projectRoot = getProjectRoot();
+		List<WorkItem> workItems = new ArrayList<WorkItem>();
+		Set<String> subprojects = new TreeSet<String>();
+		for( Map.Entry<String, String[]> member : getMembers(true).entrySet() )
+		{
+			String relativePath = member.getKey();
+			String[] info = member.getValue();
+			// Subprojects must be listed before the members they contain
+			String parent = projectName;
+			int slash = relativePath.indexOf('/');
+			while( slash > 0 )
+			{
+				parent = projectRoot + "/" + relativePath.substring(0, slash) + "/project.pj";
+				if( subprojects.add(parent) )
+				{
+					Map<String, Field> fields = new HashMap<String, Field>();
+					fields.put("name", field("name", parent));
+					workItems.add(workItem(parent, SIModelTypeName.SI_SUBPROJECT, fields, null));
+				}
+				slash = relativePath.indexOf('/', slash + 1);
+			}
+
+			String memberName = projectRoot + "/" + relativePath;
+			Map<String, Field> fields = new HashMap<String, Field>();
+			fields.put("name", field("name", memberName));
+			fields.put("parent", field("parent", parent));
+			fields.put("memberrev", field("memberrev", item(info[0], "si.Revision")));
+			fields.put("membertimestamp", field("membertimestamp", new Date(Long.parseLong(info[2]))));
+			fields.put("memberdescription", field("memberdescription", info[3]));
+			workItems.add(workItem(memberName, SIModelTypeName.MEMBER, fields, null));
+		}
+		return response(cmd, workItems);
+	}
+
+	private Response projectCheckout(Command cmd) throws APIException
+	{
+		// Batched checkouts pair each selection with the targetFile option at the same position
+		List<String> targetFiles = new ArrayList<String>();
+		for( Iterator<?> it = cmd.getOptionList().getOptions(); it.hasNext(); )
+		{
+			Option option = (Option)it.next();
+			if( option.getName().equals("targetFile") )
+			{
+				targetFiles.add(option.getValue());
+			}
+		}
+
+		SelectionList selections = cmd.getSelectionList();
+		if( null == selections || selections.size() <= 1 )
+		{
+			String memberID = getSelection(cmd);
+			try
+			{
+				checkoutMember(memberID, targetFiles.isEmpty() ? null : targetFiles.get(0), cmd.getOptionList().hasOption("restoreTimestamp"));
+			}
+			catch(APIException aex)
+			{
+				// Fail the command with a response, like the server does, so it isn't mistaken for a lost connection
+				List<WorkItem> workItems = new ArrayList<WorkItem>();
+				workItems.add(memberWorkItem(memberID, aex));
+				throw new CommandFailedException(aex.getMessage(), response(cmd, workItems, 1));
+			}
+			return response(cmd, new ArrayList<WorkItem>());
+		}
+
+		// Report the result of each member, like the server does for a command with several selections
+		List<WorkItem> workItems = new ArrayList<WorkItem>();
+		for( int i = 0; i < selections.size(); i++ )
+		{
+			String memberID = selections.getSelection(i);
+			APIException failure = null;
+			try
+			{
+				checkoutMember(memberID, i < targetFiles.size() ? targetFiles.get(i) : null, cmd.getOptionList().hasOption("restoreTimestamp"));
+			}
+			catch(APIException aex)
+			{
+				failure = aex;
+			}
+			workItems.add(memberWorkItem(memberID, failure));
+		}
+		return response(cmd, workItems);
+	}
+
+	/**
+	 * Returns the checkout result of a single member
+	 * @param memberID Member that was checked out
+	 * @param failure Failure of the checkout or null if it succeeded
+	 * @return
+	 */
+	private static WorkItem memberWorkItem(String memberID, APIException failure)
+	{
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("getId", memberID);
+		properties.put("getModelType", SIModelTypeName.MEMBER);
+		if( null != failure )
+		{
+			properties.put("getAPIException", failure);
+		}
+		return (WorkItem)proxy(WorkItem.class, properties, new HashMap<String, Field>());
+	}
+
+	/**
+	 * Copies the working file of a member to the target file
+	 * @throws APIException if the member does not exist
+	 */
+	private void checkoutMember(String memberID, String targetFile, boolean restoreTimestamp) throws APIException
+	{
+		File source = new File(new File(root, "files"), getRelativePath(memberID));
+		if( ! source.isFile() || null == targetFile )
+		{
+			throw new APIException("Member " + memberID + " does not exist in the local Integrity stand-in!");
+		}
+
+		File target = new File(targetFile);
+		InputStream is = null;
+		OutputStream os = null;
+		try
+		{
+			target.getParentFile().mkdirs();
+			is = new FileInputStream(source);
+			os = new FileOutputStream(target);
+			IOUtils.copy(is, os);
+		}
+		catch(IOException ioe)
+		{
+			throw new APIException(ioe);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(is);
+			IOUtils.closeQuietly(os);
+		}
+
+		if( restoreTimestamp )
+		{
+			String[] info = getMembers(false).get(getRelativePath(memberID));
+			target.setLastModified(null == info ? source.lastModified() : Long.parseLong(info[2]));
+		}
+	}
+
+	private Response revisionInfo(Command cmd) throws APIException
+	{
+		String memberID = getSelection(cmd);
+		String[] info = getMembers(false).get(getRelativePath(memberID));
+		Map<String, Field> fields = new HashMap<String, Field>();
+		fields.put("author", field("author", (null == info ? "unknown" : info[1])));
+		List<WorkItem> workItems = new ArrayList<WorkItem>();
+		workItems.add(workItem(memberID, "si.Revision", fields, null));
+		return response(cmd, workItems);
+	}
+
+	private Response checkpoint(Command cmd)
+	{
+		int next;
+		synchronized(checkpoints)
+		{
+			Integer last = checkpoints.get(root);
+			next = (null == last ? 1 : last.intValue()) + 1;
+			checkpoints.put(root, next);
+		}
+		String configPath = getOption(cmd, "project");
+		Map<String, Field> resultFields = new HashMap<String, Field>();
+		resultFields.put("resultant", field("resultant", item("1." + next, SIModelTypeName.PROJECT)));
+		Map<String, Object> resultProperties = new HashMap<String, Object>();
+		resultProperties.put("getMessage", "Checkpointed project " + configPath + " at revision 1." + next);
+		Result result = (Result)proxy(Result.class, resultProperties, resultFields);
+		List<WorkItem> workItems = new ArrayList<WorkItem>();
+		workItems.add(workItem(null == configPath ? getProjectName() : configPath, SIModelTypeName.PROJECT, new HashMap<String, Field>(), result));
+		return response(cmd, workItems);
+	}
+
+	private Response issues(Command cmd)
+	{
+		List<WorkItem> workItems = new ArrayList<WorkItem>();
+		for( String id : getSettings().getProperty("issues", "").split(",") )
+		{
+			if( id.trim().length() > 0 )
+			{
+				Map<String, Field> fields = new HashMap<String, Field>();
+				fields.put("ID", field("ID", id.trim()));
+				workItems.add(workItem(id.trim(), "im.Issue", fields, null));
+			}
+		}
+		return response(cmd, workItems);
+	}
+
+	/**
+	 * Creates a field holding a String, Date or Item value
+	 */
+	private static Field field(String name, Object value)
+	{
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("getName", name);
+		properties.put("getValue", value);
+		properties.put("getValueAsString", (value instanceof Item ? ((Item)value).getId() :
+											(null == value ? null : String.valueOf(value))));
+		properties.put("getDateTime", (value instanceof Date ? value : null));
+		properties.put("getItem", (value instanceof Item ? value : null));
+		return (Field)proxy(Field.class, properties, null);
+	}
+
+	/**
+	 * Creates an item, i.e. a revision
+	 */
+	private static Item item(String id, String modelType)
+	{
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("getId", id);
+		properties.put("getModelType", modelType);
+		properties.put("toString", id);
+		return (Item)proxy(Item.class, properties, new HashMap<String, Field>());
+	}
+
+	/**
+	 * Creates a work item with the specified fields and result
+	 */
+	private static WorkItem workItem(String id, String modelType, Map<String, Field> fields, Result result)
+	{
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("getId", id);
+		properties.put("getModelType", modelType);
+		properties.put("getResult", result);
+		return (WorkItem)proxy(WorkItem.class, properties, fields);
+	}
+
+	/**
+	 * Creates a successful response containing the specified work items
+	 */
+	private static Response response(Command cmd, final List<WorkItem> workItems)
+	{
+		return response(cmd, workItems, 0);
+	}
+
+	private static Response response(Command cmd, final List<WorkItem> workItems, int exitCode)
+	{
+		final Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("getCommandString", cmd.getApp() + " " + cmd.getCommandName());
+		properties.put("getCommandName", cmd.getCommandName());
+		properties.put("getApplicationName", cmd.getApp());
+		properties.put("getExitCode", Integer.valueOf(exitCode));
+		properties.put("getWorkItemListSize", Integer.valueOf(workItems.size()));
+		return (Response)Proxy.newProxyInstance(LocalIntegrityTransport.class.getClassLoader(), new Class<?>[] {Response.class},
+			new InvocationHandler()
+			{
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if( method.getName().equals("getWorkItems") )
+					{
+						return iterator(workItems.iterator());
+					}
+					else if( method.getName().equals("getWorkItem") )
+					{
+						for( WorkItem wi : workItems )
+						{
+							if( wi.getId().equals(args[0]) )
+							{
+								return wi;
+							}
+						}
+						return null;
+					}
+					return lookup(properties, method);
+				}
+			});
+	}
+
+	/**
+	 * Wraps an iterator of work items in a WorkItemIterator
+	 */
+	private static WorkItemIterator iterator(final Iterator<WorkItem> it)
+	{
+		return (WorkItemIterator)Proxy.newProxyInstance(LocalIntegrityTransport.class.getClassLoader(), new Class<?>[] {WorkItemIterator.class},
+			new InvocationHandler()
+			{
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if( method.getName().equals("hasNext") )
+					{
+						return Boolean.valueOf(it.hasNext());
+					}
+					else if( method.getName().equals("next") )
+					{
+						return it.next();
+					}
+					return lookup(new HashMap<String, Object>(), method);
+				}
+			});
+	}
+
+	/**
+	 * Creates an implementation of one of the API response interfaces that returns the specified
+	 * property values (keyed by method name) and fields (for getField)
+	 */
+	private static Object proxy(Class<?> type, final Map<String, Object> properties, final Map<String, Field> fields)
+	{
+		return Proxy.newProxyInstance(LocalIntegrityTransport.class.getClassLoader(), new Class<?>[] {type},
+			new InvocationHandler()
+			{
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if( method.getName().equals("getField") && null != fields )
+					{
+						return fields.get(args[0]);
+					}
+					else if( method.getName().equals("getFields") && null != fields )
+					{
+						// Every call starts a new pass over the fields
+						return fields.values().iterator();
+					}
+					else if( method.getName().equals("hashCode") )
+					{
+						return Integer.valueOf(System.identityHashCode(proxy));
+					}
+					else if( method.getName().equals("equals") )
+					{
+						return Boolean.valueOf(proxy == args[0]);
+					}
+					return lookup(properties, method);
+				}
+			});
+	}
+
+	/**
+	 * Returns zero as the specified primitive number type
+	 */
+	private static Object convertZero(Class<?> type)
+	{
+		if( type.equals(Integer.TYPE) ){ return Integer.valueOf(0); }
+		if( type.equals(Long.TYPE) ){ return Long.valueOf(0); }
+		if( type.equals(Short.TYPE) ){ return Short.valueOf((short)0); }
+		if( type.equals(Byte.TYPE) ){ return Byte.valueOf((byte)0); }
+		if( type.equals(Float.TYPE) ){ return Float.valueOf(0); }
+		return Double.valueOf(0);
+	}
+
+	/**
+	 * Returns the configured value for a method or a default value for its return type
+	 */
+	private static Object lookup(Map<String, Object> properties, Method method)
+	{
+		if( properties.containsKey(method.getName()) )
+		{
+			return properties.get(method.getName());
+		}
+		Class<?> type = method.getReturnType();
+		if( type.equals(Boolean.TYPE) )
+		{
+			return Boolean.FALSE;
+		}
+		else if( type.equals(Character.TYPE) )
+		{
+			return Character.valueOf((char)0);
+		}
+		else if( type.isPrimitive() && ! type.equals(Void.TYPE) )
+		{
+			// All other primitives are numbers, so convert a zero to the expected type
+			return convertZero(type);
+		}
+		else if( method.getName().equals("toString") )
+		{
+			return "LocalIntegrityResponse";
+		}
+		return null;
+	}
+}
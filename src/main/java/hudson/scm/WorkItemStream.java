@@ -0,0 +1,219 @@
+package hudson.scm;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.mks.api.Command;
+import com.mks.api.response.APIException;
+import com.mks.api.response.Response;
+import com.mks.api.response.WorkItem;
+import com.mks.api.response.WorkItemIterator;
+
+/**
+ * Streams the work items of a long running command (i.e. si viewproject) from a background reader
+ * through a bounded buffer.  The reader blocks while the buffer is full, so a slow consumer never
+ * causes the entire response to be held in memory.  The interim command runner is released as soon
+ * as the last work item has been read, and closing the stream (or interrupting the consuming thread,
+ * i.e. when a build is aborted) interrupts the command on the server right away.
+ */
+public class WorkItemStream
+{
+	// Marks the end of the stream in the buffer
+	private static final Object END_OF_STREAM = new Object();
+
+	private final APISession api;
+	private final Command cmd;
+	private final BlockingQueue<Object> buffer;
+	private final Thread reader;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+	private Object nextItem;
+	private boolean finished;
+	private int count;
+
+	/**
+	 * Starts executing the command and reading its work items in the background
+	 * @param api Integrity API Session used to execute the command
+	 * @param cmd Integrity API Command Object representing a CLI command
+	 * @param bufferSize Maximum number of work items buffered ahead of the consumer
+	 */
+	public WorkItemStream(APISession api, Command cmd, int bufferSize)
+	{
+		this.api = api;
+		this.cmd = cmd;
+		this.buffer = new ArrayBlockingQueue<Object>(bufferSize);
+		this.reader = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				read();
+			}
+		}, "Integrity " + cmd.getApp() + " " + cmd.getCommandName() + " reader");
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Executes the command and hands each work item to the consumer
+	 */
+	private void read()
+	{
+		try
+		{
+			Response res = api.runCommandWithInterim(cmd);
+			WorkItemIterator wit = res.getWorkItems();
+			while( ! closed && wit.hasNext() )
+			{
+				buffer.put(wit.next());
+			}
+			Logger.debug("Finished reading " + res.getCommandString());
+		}
+		catch(InterruptedException iex)
+		{
+			Logger.debug("Reading " + cmd.getApp() + " " + cmd.getCommandName() + " was cancelled");
+		}
+		catch(Throwable t)
+		{
+			// Any failure must reach the consumer, otherwise a truncated stream looks complete
+			if( ! closed )
+			{
+				failure = t;
+			}
+		}
+		finally
+		{
+			// Free up the interim command runner on the server as soon as we're done with it
+			releaseInterimRunner(closed || null != failure);
+			// The consumer is never left waiting, even when the buffer is full at this point
+			if( ! closed )
+			{
+				try
+				{
+					buffer.put(END_OF_STREAM);
+				}
+				catch(InterruptedException iex)
+				{
+					Logger.debug("Interrupted while ending stream for " + cmd.getApp() + " " + cmd.getCommandName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the interim command runner, interrupting the command if it is still running
+	 * @param failed true if the work items could not all be read
+	 */
+	private void releaseInterimRunner(boolean failed)
+	{
+		try
+		{
+			api.releaseInterimRunner(failed);
+		}
+		catch(APIException aex)
+		{
+			Logger.debug("Caught API Exception when releasing interim command runner!");
+		}
+	}
+
+	/**
+	 * Returns true if there are more work items
+	 * @return
+	 * @throws APIException if the command failed
+	 * @throws RuntimeException if reading the work items failed unexpectedly
+	 * @throws InterruptedException if the consuming thread was interrupted; the stream is closed
+	 */
+	public boolean hasNext() throws APIException, InterruptedException
+	{
+		if( null == nextItem && ! finished )
+		{
+			try
+			{
+				nextItem = buffer.take();
+			}
+			catch(InterruptedException iex)
+			{
+				close();
+				throw iex;
+			}
+
+			if( END_OF_STREAM == nextItem )
+			{
+				nextItem = null;
+				finished = true;
+			}
+		}
+
+		if( finished && null != failure )
+		{
+			rethrowFailure();
+		}
+		return ! finished;
+	}
+
+	/**
+	 * Throws the failure of the background reader in the consuming thread
+	 * @throws APIException if the command failed or the reader failed with a checked exception
+	 */
+	private void rethrowFailure() throws APIException
+	{
+		if( failure instanceof APIException )
+		{
+			throw (APIException)failure;
+		}
+		else if( failure instanceof RuntimeException )
+		{
+			throw (RuntimeException)failure;
+		}
+		else if( failure instanceof Error )
+		{
+			throw (Error)failure;
+		}
+		throw new APIException(failure);
+	}
+
+	/**
+	 * Returns the next work item
+	 * @return
+	 * @throws APIException if the command failed
+	 * @throws InterruptedException if the consuming thread was interrupted; the stream is closed
+	 */
+	public WorkItem next() throws APIException, InterruptedException
+	{
+		if( ! hasNext() )
+		{
+			throw new APIException("No more work items for " + cmd.getApp() + " " + cmd.getCommandName() + "!");
+		}
+		WorkItem wi = (WorkItem)nextItem;
+		nextItem = null;
+		count++;
+		return wi;
+	}
+
+	/**
+	 * Returns the number of work items consumed so far
+	 * @return
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Stops reading, interrupts the command if it is still running on the server and discards any buffered work items
+	 */
+	public void close()
+	{
+		if( closed )
+		{
+			return;
+		}
+		closed = true;
+		if( reader.isAlive() )
+		{
+			// The reader may be blocked on a full buffer or waiting on the server
+			reader.interrupt();
+			releaseInterimRunner(true);
+		}
+		buffer.clear();
+	}
+}
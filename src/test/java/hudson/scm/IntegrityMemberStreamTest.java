@@ -0,0 +1,172 @@
+package hudson.scm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Round trips of member lists through the binary member list encoding
+ */
+public class IntegrityMemberStreamTest
+{
+	private static final String PREFIX = "/LocalProject/";
+	private static final String CONFIG_PATH = "#/LocalProject/project.pj";
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		List<Hashtable<CM_PROJECT, Object>> members = new ArrayList<Hashtable<CM_PROJECT, Object>>();
+		Hashtable<CM_PROJECT, Object> added = member(PREFIX + "src/A.java", PREFIX + "src/A.java", "src/A.java", "1.1", "0cc175b9", Short.valueOf((short)1));
+		Hashtable<CM_PROJECT, Object> updated = member(PREFIX + "src/B.java", "src/B.java", "src/B.java", "1.4", null, Short.valueOf((short)2));
+		Hashtable<CM_PROJECT, Object> renamed = member("/Other/C.java", "/Other/C.java", "lib/C.java", "1.2", null, null);
+		Hashtable<CM_PROJECT, Object> unchanged = member(PREFIX + "D.java", PREFIX + "D.java", "D.java", "1.1", "92eb5ffe", Short.valueOf((short)0));
+		Hashtable<CM_PROJECT, Object> untracked = member(PREFIX + "E.java", PREFIX + "E.java", "E.java", "1.1", null, Short.valueOf((short)0));
+		members.addAll(Arrays.asList(added, updated, renamed, unchanged, untracked));
+
+		IntegrityMemberStream.Source source = IntegrityMemberStream.open(new ByteArrayInputStream(encode(members, true, true, false)));
+		assertEquals(4, source.size());
+		assertEquals(added, source.next());
+		assertEquals(updated, source.next());
+		assertEquals(renamed, source.next());
+
+		Hashtable<CM_PROJECT, Object> manifest = source.next();
+		assertTrue(IntegrityMemberStream.isManifestOnly(manifest));
+		assertEquals("D.java", manifest.get(CM_PROJECT.RELATIVE_FILE));
+		assertEquals("92eb5ffe", manifest.get(CM_PROJECT.CHECKSUM));
+		assertEquals(Short.valueOf((short)0), manifest.get(CM_PROJECT.DELTA));
+		assertNull(source.next());
+		source.close();
+
+		// A full manifest sends the unchanged members without a checksum as well
+		source = IntegrityMemberStream.open(new ByteArrayInputStream(encode(members, true, true, true)));
+		assertEquals(5, source.size());
+		for( int i = 0; i < 4; i++ )
+		{
+			source.next();
+		}
+		Hashtable<CM_PROJECT, Object> last = source.next();
+		assertTrue(IntegrityMemberStream.isManifestOnly(last));
+		assertEquals("E.java", last.get(CM_PROJECT.RELATIVE_FILE));
+		assertEquals("", last.get(CM_PROJECT.CHECKSUM));
+		source.close();
+
+		// Without changesOnly every member is sent in full
+		source = IntegrityMemberStream.open(new ByteArrayInputStream(encode(members, false, false, false)));
+		assertEquals(5, source.size());
+		for( Hashtable<CM_PROJECT, Object> memberInfo : members )
+		{
+			Hashtable<CM_PROJECT, Object> decoded = source.next();
+			assertFalse(IntegrityMemberStream.isManifestOnly(decoded));
+			assertEquals(memberInfo, decoded);
+		}
+		assertNull(source.next());
+		source.close();
+	}
+
+	@Test
+	public void testRepeatedStringsAreSentOnce() throws Exception
+	{
+		String longPrefix = "/LocalProject/with/a/rather/long/path/to/the/sources/";
+		String otherPrefix = "/OtherProject/with/a/rather/long/path/to/the/sources/";
+		List<Hashtable<CM_PROJECT, Object>> repeated = new ArrayList<Hashtable<CM_PROJECT, Object>>();
+		List<Hashtable<CM_PROJECT, Object>> distinct = new ArrayList<Hashtable<CM_PROJECT, Object>>();
+		for( int i = 0; i < 3; i++ )
+		{
+			String relativeFile = "File" + i + ".java";
+			repeated.add(member(longPrefix + relativeFile, longPrefix + relativeFile, relativeFile, "1.1", null, null));
+			String prefix = (i % 2 == 0 ? longPrefix : otherPrefix);
+			distinct.add(member(prefix + relativeFile, prefix + relativeFile, relativeFile, "1.1", null, null));
+		}
+
+		byte[] encoded = encode(repeated, false, false, false);
+		assertTrue(encoded.length + otherPrefix.length() <= encode(distinct, false, false, false).length);
+
+		IntegrityMemberStream.Source source = IntegrityMemberStream.open(new ByteArrayInputStream(encoded));
+		for( Hashtable<CM_PROJECT, Object> memberInfo : repeated )
+		{
+			assertEquals(memberInfo, source.next());
+		}
+		assertNull(source.next());
+		source.close();
+	}
+
+	@Test
+	public void testTruncatedStream() throws Exception
+	{
+		List<Hashtable<CM_PROJECT, Object>> members = new ArrayList<Hashtable<CM_PROJECT, Object>>();
+		members.add(member(PREFIX + "A.java", PREFIX + "A.java", "A.java", "1.1", null, null));
+		members.add(member(PREFIX + "B.java", PREFIX + "B.java", "B.java", "1.1", null, null));
+		byte[] encoded = encode(members, false, false, false);
+
+		IntegrityMemberStream.Source source = IntegrityMemberStream.open(new ByteArrayInputStream(encoded, 0, encoded.length - 3));
+		assertEquals(members.get(0), source.next());
+		try
+		{
+			source.next();
+			fail("Truncated member list was accepted");
+		}
+		catch(IOException ioe)
+		{
+			// expected
+		}
+		source.close();
+
+		try
+		{
+			IntegrityMemberStream.open(new ByteArrayInputStream(encoded, 0, 6));
+			fail("Truncated member list header was accepted");
+		}
+		catch(IOException ioe)
+		{
+			// expected
+		}
+
+		try
+		{
+			IntegrityMemberStream.open(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 0, 0, 0, 0}));
+			fail("Stream without a member list was accepted");
+		}
+		catch(IOException ioe)
+		{
+			// expected
+		}
+	}
+
+	private static byte[] encode(List<Hashtable<CM_PROJECT, Object>> members, boolean changesOnly, boolean withManifest, boolean fullManifest) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IntegrityMemberStream.write(members, out, changesOnly, withManifest, fullManifest);
+		return out.toByteArray();
+	}
+
+	private static Hashtable<CM_PROJECT, Object> member(String name, String memberID, String relativeFile, String revision, String checksum, Short delta)
+	{
+		Hashtable<CM_PROJECT, Object> memberInfo = new Hashtable<CM_PROJECT, Object>();
+		memberInfo.put(CM_PROJECT.NAME, name);
+		memberInfo.put(CM_PROJECT.MEMBER_ID, memberID);
+		memberInfo.put(CM_PROJECT.RELATIVE_FILE, relativeFile);
+		memberInfo.put(CM_PROJECT.REVISION, revision);
+		memberInfo.put(CM_PROJECT.CONFIG_PATH, CONFIG_PATH);
+		if( null != checksum )
+		{
+			memberInfo.put(CM_PROJECT.CHECKSUM, checksum);
+		}
+		if( null != delta )
+		{
+			memberInfo.put(CM_PROJECT.DELTA, delta);
+		}
+		return memberInfo;
+	}
+}
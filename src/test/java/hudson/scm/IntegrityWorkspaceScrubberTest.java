@@ -0,0 +1,103 @@
+package hudson.scm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Scrubs of a checkout directory against the members and folders of a project
+ */
+public class IntegrityWorkspaceScrubberTest
+{
+	private File checkOutDir;
+	private IntegrityWorkspaceScrubber scrubber;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		checkOutDir = createTempDir("integrity-workspace");
+		scrubber = new IntegrityWorkspaceScrubber(checkOutDir);
+		scrubber.addFile("a.txt");
+		scrubber.addFile("src/Main.java");
+		scrubber.addDirectory("empty");
+		scrubber.addDirectory("docs/empty");
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		FileUtils.deleteDirectory(checkOutDir);
+	}
+
+	@Test
+	public void testScrub() throws Exception
+	{
+		write("a.txt");
+		write("src/Main.java");
+		new File(checkOutDir, "empty").mkdirs();
+		new File(checkOutDir, "docs/empty").mkdirs();
+		write("build.log");
+		write("src/Generated.java");
+		write("target/classes/Main.class");
+		new File(checkOutDir, "src/tmp").mkdirs();
+
+		List<File> failed = scrubber.scrub("scrub-test-");
+
+		assertTrue(failed.isEmpty());
+		assertTrue(new File(checkOutDir, "a.txt").isFile());
+		assertTrue(new File(checkOutDir, "src/Main.java").isFile());
+		assertTrue(new File(checkOutDir, "empty").isDirectory());
+		assertTrue(new File(checkOutDir, "docs/empty").isDirectory());
+		assertFalse(new File(checkOutDir, "build.log").exists());
+		assertFalse(new File(checkOutDir, "src/Generated.java").exists());
+		assertFalse(new File(checkOutDir, "target").exists());
+		assertFalse(new File(checkOutDir, "src/tmp").exists());
+		assertEquals(4, scrubber.getDeletedCount());
+		// Untracked folders are deleted without being walked
+		assertEquals(10, scrubber.getScannedCount());
+	}
+
+	@Test
+	public void testManifestOnlyMembersAreKept() throws Exception
+	{
+		// Members left over from a previous build and not fetched again are still part of the project
+		scrubber.addFile("src/gen/Old.java");
+		scrubber.addFile("lib/tool.jar");
+		write("src/gen/Old.java");
+		write("lib/tool.jar/nested.txt");
+		write("src/gen/New.java");
+
+		List<File> failed = scrubber.scrub("scrub-test-");
+
+		assertTrue(failed.isEmpty());
+		assertTrue(new File(checkOutDir, "src/gen/Old.java").isFile());
+		// A folder that took the place of a member is left alone
+		assertTrue(new File(checkOutDir, "lib/tool.jar/nested.txt").isFile());
+		assertFalse(new File(checkOutDir, "src/gen/New.java").exists());
+		assertEquals(1, scrubber.getDeletedCount());
+	}
+
+	private void write(String relativeFile) throws IOException
+	{
+		FileUtils.writeStringToFile(new File(checkOutDir, relativeFile), relativeFile, "UTF-8");
+	}
+
+	private static File createTempDir(String prefix) throws IOException
+	{
+		File dir = File.createTempFile(prefix, "");
+		if( ! dir.delete() || ! dir.mkdir() )
+		{
+			throw new IOException("Failed to create " + dir.getAbsolutePath());
+		}
+		return dir;
+	}
+}
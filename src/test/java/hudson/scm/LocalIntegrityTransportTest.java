@@ -0,0 +1,221 @@
+package hudson.scm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mks.api.Command;
+import com.mks.api.Option;
+import com.mks.api.response.APIException;
+import com.mks.api.response.Field;
+import com.mks.api.response.Response;
+import com.mks.api.response.WorkItem;
+import com.mks.api.response.WorkItemIterator;
+import com.mks.api.si.SIModelTypeName;
+
+/**
+ * Round trips of the commands used by a checkout against the local Integrity stand-in
+ */
+public class LocalIntegrityTransportTest
+{
+	private static final long TIMESTAMP = 1262304000000L;
+
+	private File root;
+	private File target;
+	private LocalIntegrityTransport transport;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		root = createTempDir("integrity-server");
+		target = createTempDir("integrity-workspace");
+		write(new File(root, "files/a.txt"), "alpha\n");
+		write(new File(root, "files/sub/b.txt"), "bravo\r\n");
+		write(new File(root, "members.txt"), "a.txt\t1.3\tjdoe\t" + TIMESTAMP + "\tFirst member\n" +
+												"sub/b.txt\t1.1\tjdoe\t" + TIMESTAMP + "\tSecond member\n");
+		transport = new LocalIntegrityTransport(root, "jdoe");
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		transport.release();
+		FileUtils.deleteDirectory(root);
+		FileUtils.deleteDirectory(target);
+	}
+
+	@Test
+	public void testViewProject() throws Exception
+	{
+		Command cmd = new Command(Command.SI, "viewproject");
+		cmd.addOption(new Option("project", "/LocalProject/project.pj"));
+		Response response = transport.execute(cmd, "jdoe");
+
+		List<WorkItem> workItems = toList(response.getWorkItems());
+		assertEquals(3, workItems.size());
+		assertEquals("/LocalProject/a.txt", workItems.get(0).getId());
+		assertEquals(SIModelTypeName.MEMBER, workItems.get(0).getModelType());
+		assertEquals("1.3", workItems.get(0).getField("memberrev").getItem().getId());
+		assertEquals("/LocalProject/project.pj", workItems.get(0).getField("parent").getValueAsString());
+		assertEquals(TIMESTAMP, workItems.get(0).getField("membertimestamp").getDateTime().getTime());
+
+		// Subprojects are listed before the members they contain
+		assertEquals("/LocalProject/sub/project.pj", workItems.get(1).getId());
+		assertEquals(SIModelTypeName.SI_SUBPROJECT, workItems.get(1).getModelType());
+		assertEquals("/LocalProject/sub/b.txt", workItems.get(2).getId());
+		assertEquals("/LocalProject/sub/project.pj", workItems.get(2).getField("parent").getValueAsString());
+	}
+
+	@Test
+	public void testGetFieldsCanBeIteratedRepeatedly() throws Exception
+	{
+		Response response = transport.execute(new Command(Command.SI, "viewproject"), "jdoe");
+		WorkItem wi = response.getWorkItems().next();
+		int count = countFields(wi.getFields());
+		assertEquals(5, count);
+		assertEquals(count, countFields(wi.getFields()));
+	}
+
+	@Test
+	public void testProjectCheckout() throws Exception
+	{
+		File file = new File(target, "sub/b.txt");
+		Command cmd = new Command(Command.SI, "projectco");
+		cmd.addOption(new Option("targetFile", file.getAbsolutePath()));
+		cmd.addOption(new Option("restoreTimestamp"));
+		cmd.addSelection("/LocalProject/sub/b.txt");
+		transport.execute(cmd, "jdoe");
+
+		assertEquals("bravo\r\n", FileUtils.readFileToString(file, "UTF-8"));
+		assertEquals(TIMESTAMP, file.lastModified());
+	}
+
+	@Test
+	public void testBatchedProjectCheckout() throws Exception
+	{
+		File first = new File(target, "a.txt");
+		File second = new File(target, "sub/b.txt");
+		File missing = new File(target, "c.txt");
+		Command cmd = new Command(Command.SI, "projectco");
+		cmd.addOption(new Option("targetFile", first.getAbsolutePath()));
+		cmd.addOption(new Option("targetFile", missing.getAbsolutePath()));
+		cmd.addOption(new Option("targetFile", second.getAbsolutePath()));
+		cmd.addSelection("/LocalProject/a.txt");
+		cmd.addSelection("/LocalProject/c.txt");
+		cmd.addSelection("/LocalProject/sub/b.txt");
+		Response response = transport.execute(cmd, "jdoe");
+
+		assertEquals("alpha\n", FileUtils.readFileToString(first, "UTF-8"));
+		assertEquals("bravo\r\n", FileUtils.readFileToString(second, "UTF-8"));
+		assertFalse(missing.exists());
+		assertNull(response.getWorkItem("/LocalProject/a.txt").getAPIException());
+		assertNotNull(response.getWorkItem("/LocalProject/c.txt").getAPIException());
+		assertNull(response.getWorkItem("/LocalProject/sub/b.txt").getAPIException());
+	}
+
+	@Test
+	public void testMissingMemberCheckout() throws Exception
+	{
+		// A missing member must fail with a response, so it isn't retried as a lost connection
+		File missing = new File(target, "c.txt");
+		Command cmd = new Command(Command.SI, "projectco");
+		cmd.addOption(new Option("targetFile", missing.getAbsolutePath()));
+		cmd.addSelection("/LocalProject/c.txt");
+		try
+		{
+			transport.execute(cmd, "jdoe");
+			fail("Checkout of a missing member succeeded");
+		}
+		catch(APIException aex)
+		{
+			assertNotNull(aex.getResponse());
+			assertTrue(aex.getResponse().getExitCode() != 0);
+			assertNotNull(aex.getResponse().getWorkItem("/LocalProject/c.txt").getAPIException());
+		}
+		assertFalse(missing.exists());
+	}
+
+	@Test
+	public void testCheckoutOfViewedMembers() throws Exception
+	{
+		// Check out every member listed by viewproject, as a full checkout does
+		Response view = transport.execute(new Command(Command.SI, "viewproject"), "jdoe");
+		int count = 0;
+		for( WorkItemIterator it = view.getWorkItems(); it.hasNext(); )
+		{
+			WorkItem wi = it.next();
+			if( wi.getModelType().equals(SIModelTypeName.MEMBER) )
+			{
+				String relativePath = wi.getId().substring("/LocalProject/".length());
+				Command cmd = new Command(Command.SI, "projectco");
+				cmd.addOption(new Option("targetFile", new File(target, relativePath).getAbsolutePath()));
+				cmd.addSelection(wi.getId());
+				transport.execute(cmd, "jdoe");
+				assertTrue(FileUtils.contentEquals(new File(root, "files/" + relativePath), new File(target, relativePath)));
+				count++;
+			}
+		}
+		assertEquals(2, count);
+	}
+
+	private static int countFields(Iterator<?> fields)
+	{
+		int count = 0;
+		while( fields.hasNext() )
+		{
+			assertNotNull(((Field)fields.next()).getName());
+			count++;
+		}
+		return count;
+	}
+
+	private static List<WorkItem> toList(WorkItemIterator it) throws Exception
+	{
+		List<WorkItem> result = new ArrayList<WorkItem>();
+		while( it.hasNext() )
+		{
+			result.add(it.next());
+		}
+		return result;
+	}
+
+	private static File createTempDir(String prefix) throws IOException
+	{
+		File dir = File.createTempFile(prefix, "");
+		if( ! dir.delete() || ! dir.mkdir() )
+		{
+			throw new IOException("Failed to create " + dir.getAbsolutePath());
+		}
+		return dir;
+	}
+
+	private static void write(File file, String contents) throws IOException
+	{
+		file.getParentFile().mkdirs();
+		FileOutputStream os = new FileOutputStream(file);
+		try
+		{
+			IOUtils.write(contents, os, "UTF-8");
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+}